@@ -0,0 +1,500 @@
+package com.butler.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking client for the butler protocol. Requests are spread over a few persistent connections and
+ * pipelined. The server answers requests in order on each connection, so every request is matched with the
+ * next reply frame on the connection it was written to. Frames carrying a {@code "command"} field are chat
+ * pushes and go to the push handler instead. Chat messages get no reply and are sent with {@link #send(String)};
+ * one the server could not queue comes back as a {@code "message"} push with an {@code "error"} field, which only
+ * reaches the push handler if it was sent on the connection that receives pushes.
+ * <p>
+ * The server sends no reply for an unknown command or when its database is unavailable. A request that times
+ * out keeps its place so that a late reply is still consumed by it. Once it has waited for the reset timeout
+ * its reply is presumed lost and the connection is closed and reopened, failing everything pipelined behind it.
+ * Until then, requests behind a lost reply may be completed with the reply meant for the request after them.
+ * <p>
+ * Session commands (login, join, leave) are sent with {@link #session(String)}. They always go to the first
+ * connection, which is the only one that receives pushes. The client keeps the resulting session state, the
+ * last login and the topic memberships, and restores it after that connection reconnects. Futures
+ * and the push handler run on the client's I/O thread and must not block it.
+ */
+public final class ButlerClient implements Runnable, AutoCloseable {
+    private static final long TICK_MS = 50;
+    private static final byte[] COMMAND_FIELD = "\"command\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOPIC_FIELD = "\"topic\"".getBytes(StandardCharsets.UTF_8);
+    private static final Set<String> NO_REPLY = Set.of("message");
+    private static final String LOGIN = "getUserByLoginPassword";
+    private static final String JOIN = "join";
+    private static final String LEAVE = "leave";
+    private static final String DEFAULT_TOPIC = "lobby";
+    private static final byte[] LEAVE_LOBBY = "{\"command\":\"leave\",\"topic\":\"lobby\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final InetSocketAddress address;
+    private final ClientSettings settings;
+    private final Consumer<String> pushHandler;
+    private final Selector selector;
+    private final ClientConnection[] connections;
+    private final Queue<Submission> submissions = new ConcurrentLinkedQueue<>();
+    private final Queue<Submission> backlog = new ArrayDeque<>();
+    private final Map<String, byte[]> memberships = new LinkedHashMap<>();
+    private byte[] login;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Thread thread;
+    private volatile boolean closed;
+    private int nextConnection;
+
+    public ButlerClient(String host, int port, ClientSettings settings, Consumer<String> pushHandler)
+            throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.settings = settings;
+        this.pushHandler = pushHandler;
+        selector = Selector.open();
+        connections = new ClientConnection[settings.getConnections()];
+        int inputCapacity = settings.getMaxFrameLength() + Integer.BYTES + 2;
+        for (int i = 0; i < connections.length; ++i) {
+            connections[i] = new ClientConnection(i, inputCapacity);
+        }
+        thread = new Thread(this, "butler-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public CompletableFuture<String> request(String json) {
+        return submitRequest(json.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    public CompletableFuture<String> session(String json) {
+        return submitRequest(json.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    public CompletableFuture<Void> send(String json) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        submit(new Submission(json.getBytes(StandardCharsets.UTF_8), null, written, deadline(), false));
+        return written;
+    }
+
+    public int getConnectedCount() {
+        int count = 0;
+        for (ClientConnection connection : connections) {
+            if (connection.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getRequestTimeoutMs());
+    }
+
+    private CompletableFuture<String> submitRequest(byte[] payload, boolean session) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        String command = stringField(payload, COMMAND_FIELD);
+        if (command == null || NO_REPLY.contains(command)) {
+            reply.completeExceptionally(new IllegalArgumentException("The server does not reply to "
+                    + (command == null ? "a request without a command" : command) + ", use send()"));
+            return reply;
+        }
+        if (session && !LOGIN.equals(command) && !JOIN.equals(command) && !LEAVE.equals(command)) {
+            reply.completeExceptionally(new IllegalArgumentException(command + " is not a session command"));
+            return reply;
+        }
+        submit(new Submission(payload, reply, null, deadline(), session));
+        return reply;
+    }
+
+    private void submit(Submission submission) {
+        if (closed) {
+            submission.fail(new IOException("Client is closed"));
+            return;
+        }
+        submissions.add(submission);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public void run() {
+        while (!closed) {
+            try {
+                long now = System.nanoTime();
+                for (ClientConnection connection : connections) {
+                    if (!connection.isConnected() && connection.getChannel() == null
+                            && now - connection.getReconnectAtNanos() >= 0) {
+                        connect(connection);
+                    }
+                }
+                wakeupPending.set(false);
+                Submission submission;
+                while ((submission = submissions.poll()) != null) {
+                    dispatch(submission);
+                }
+                expire(now);
+                selector.select(TICK_MS);
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            connection.getChannel().finishConnect();
+                            connected(connection);
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException e) {
+                        disconnect(connection, e);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        shutdown();
+    }
+
+    private void connect(ClientConnection connection) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            connection.setChannel(channel);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean done = channel.connect(address);
+            connection.setKey(channel.register(selector, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+                    connection));
+            if (done) {
+                connected(connection);
+            }
+        } catch (IOException e) {
+            disconnect(connection, e);
+        }
+    }
+
+    private void connected(ClientConnection connection) throws IOException {
+        connection.setConnected(true);
+        connection.resetAttempts();
+        connection.getKey().interestOps(SelectionKey.OP_READ);
+        connection.setPushesEnabled(connection.getIndex() == 0);
+        if (connection.getIndex() == 0) {
+            if (login != null) {
+                write(connection, new Submission(login, new CompletableFuture<>(), null, deadline(), false));
+            }
+            for (byte[] payload : memberships.values()) {
+                write(connection, new Submission(payload, new CompletableFuture<>(), null, deadline(), false));
+            }
+        } else {
+            CompletableFuture<String> left = new CompletableFuture<>();
+            left.thenRun(() -> connection.setPushesEnabled(true));
+            write(connection, new Submission(LEAVE_LOBBY, left, null, deadline(), false));
+        }
+        Queue<Submission> waiting = new ArrayDeque<>(backlog);
+        backlog.clear();
+        for (Submission submission : waiting) {
+            dispatch(submission);
+        }
+    }
+
+    private void dispatch(Submission submission) {
+        if (submission.session) {
+            if (connections[0].isConnected()) {
+                try {
+                    write(connections[0], submission);
+                    remember(submission.payload);
+                } catch (IOException e) {
+                    disconnect(connections[0], e);
+                }
+            } else {
+                backlog.add(submission);
+            }
+            return;
+        }
+        for (int i = 0; i < connections.length; ++i) {
+            ClientConnection connection = connections[nextConnection];
+            nextConnection = (nextConnection + 1) % connections.length;
+            if (connection.isConnected()) {
+                try {
+                    write(connection, submission);
+                } catch (IOException e) {
+                    disconnect(connection, e);
+                }
+                return;
+            }
+        }
+        backlog.add(submission);
+    }
+
+    // Only state that differs from a fresh connection is kept: the last login, joined topics other than the
+    // lobby, and having left the lobby.
+    private void remember(byte[] payload) {
+        String command = stringField(payload, COMMAND_FIELD);
+        if (LOGIN.equals(command)) {
+            login = payload;
+            return;
+        }
+        String topic = stringField(payload, TOPIC_FIELD);
+        if (topic == null || topic.isEmpty()) {
+            topic = DEFAULT_TOPIC;
+        }
+        if (JOIN.equals(command) != DEFAULT_TOPIC.equals(topic)) {
+            memberships.put(topic, payload);
+        } else {
+            memberships.remove(topic);
+        }
+    }
+
+    private void write(ClientConnection connection, Submission submission) throws IOException {
+        ByteBuffer frame = settings.getFraming().encode(submission.payload);
+        connection.getOutput().add(new ClientConnection.Outbound(frame, submission.written));
+        if (submission.reply != null) {
+            connection.getPending().add(new ClientConnection.Pending(submission.reply, submission.deadlineNanos,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getResetTimeoutMs())));
+        }
+        flush(connection);
+    }
+
+    private void flush(ClientConnection connection) throws IOException {
+        Queue<ClientConnection.Outbound> output = connection.getOutput();
+        ClientConnection.Outbound outbound;
+        while ((outbound = output.peek()) != null) {
+            connection.getChannel().write(outbound.getFrame());
+            if (outbound.getFrame().hasRemaining()) {
+                break;
+            }
+            output.poll();
+            if (outbound.getWritten() != null) {
+                outbound.getWritten().complete(null);
+            }
+        }
+        connection.getKey().interestOps(output.isEmpty()
+                ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void read(ClientConnection connection) throws IOException {
+        ByteBuffer input = connection.getInput();
+        if (connection.getChannel().read(input) == -1) {
+            throw new IOException("Connection closed by server");
+        }
+        input.flip();
+        try {
+            settings.getFraming().decode(input, settings.getMaxFrameLength(), frame -> handleFrame(connection, frame));
+        } finally {
+            input.compact();
+        }
+    }
+
+    private void handleFrame(ClientConnection connection, byte[] frame) {
+        if (isPush(frame)) {
+            if (pushHandler != null && connection.isPushesEnabled()) {
+                try {
+                    pushHandler.accept(new String(frame, StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
+        ClientConnection.Pending pending = connection.getPending().poll();
+        if (pending != null) {
+            pending.getReply().complete(new String(frame, StandardCharsets.UTF_8));
+        }
+    }
+
+    static boolean isPush(byte[] frame) {
+        return valueIndex(frame, COMMAND_FIELD) >= 0;
+    }
+
+    // Returns the raw contents of a string field, escapes left as they are, or null when there is no such field.
+    static String stringField(byte[] frame, byte[] field) {
+        int start = valueIndex(frame, field);
+        while (start >= 0 && start < frame.length && Character.isWhitespace(frame[start])) {
+            start++;
+        }
+        if (start < 0 || start >= frame.length || frame[start] != '"') {
+            return null;
+        }
+        for (int i = start + 1; i < frame.length; ++i) {
+            if (frame[i] == '\\') {
+                i++;
+            } else if (frame[i] == '"') {
+                return new String(frame, start + 1, i - start - 1, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static int valueIndex(byte[] frame, byte[] field) {
+        outer:
+        for (int i = 0; i + field.length <= frame.length; ++i) {
+            for (int j = 0; j < field.length; ++j) {
+                if (frame[i + j] != field[j]) {
+                    continue outer;
+                }
+            }
+            for (int k = i + field.length; k < frame.length; ++k) {
+                if (frame[k] == ':') {
+                    return k + 1;
+                }
+                if (!Character.isWhitespace(frame[k])) {
+                    break;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void expire(long now) {
+        // A timed-out request keeps its place in the queue so that its late reply is consumed by it and not
+        // by the request behind it. Past the reset timeout its reply is presumed lost and the connection is reset.
+        for (ClientConnection connection : connections) {
+            ClientConnection.Pending oldest = connection.getPending().peek();
+            if (oldest != null && now - oldest.getResetNanos() >= 0) {
+                disconnect(connection, new TimeoutException("No reply within " + settings.getResetTimeoutMs()
+                        + " ms, connection reset"));
+                continue;
+            }
+            for (ClientConnection.Pending pending : connection.getPending()) {
+                if (now - pending.getDeadlineNanos() < 0) {
+                    break;
+                }
+                if (!pending.getReply().isDone()) {
+                    pending.getReply().completeExceptionally(new TimeoutException("No reply within "
+                            + settings.getRequestTimeoutMs() + " ms"));
+                }
+            }
+        }
+        Iterator<Submission> waiting = backlog.iterator();
+        while (waiting.hasNext()) {
+            Submission submission = waiting.next();
+            if (now - submission.deadlineNanos >= 0) {
+                waiting.remove();
+                submission.fail(new TimeoutException("Not connected within " + settings.getRequestTimeoutMs() + " ms"));
+            }
+        }
+    }
+
+    private void disconnect(ClientConnection connection, Exception cause) {
+        close(connection, cause);
+        long backoff = Math.min(settings.getReconnectMaxMs(),
+                settings.getReconnectMinMs() << Math.min(connection.nextAttempt() - 1, 20));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        connection.setReconnectAtNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+
+    private void close(ClientConnection connection, Exception cause) {
+        connection.setConnected(false);
+        if (connection.getKey() != null) {
+            connection.getKey().cancel();
+            connection.setKey(null);
+        }
+        if (connection.getChannel() != null) {
+            try {
+                connection.getChannel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            connection.setChannel(null);
+        }
+        connection.getInput().clear();
+        ClientConnection.Pending pending;
+        while ((pending = connection.getPending().poll()) != null) {
+            pending.getReply().completeExceptionally(cause);
+        }
+        ClientConnection.Outbound outbound;
+        while ((outbound = connection.getOutput().poll()) != null) {
+            if (outbound.getWritten() != null) {
+                outbound.getWritten().completeExceptionally(cause);
+            }
+        }
+    }
+
+    private void shutdown() {
+        IOException cause = new IOException("Client is closed");
+        for (ClientConnection connection : connections) {
+            close(connection, cause);
+        }
+        Submission submission;
+        while ((submission = backlog.poll()) != null) {
+            submission.fail(cause);
+        }
+        while ((submission = submissions.poll()) != null) {
+            submission.fail(cause);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Submission {
+        private final byte[] payload;
+        private final CompletableFuture<String> reply;
+        private final CompletableFuture<Void> written;
+        private final long deadlineNanos;
+        private final boolean session;
+
+        Submission(byte[] payload, CompletableFuture<String> reply, CompletableFuture<Void> written,
+                   long deadlineNanos, boolean session) {
+            this.payload = payload;
+            this.reply = reply;
+            this.written = written;
+            this.deadlineNanos = deadlineNanos;
+            this.session = session;
+        }
+
+        void fail(Exception cause) {
+            if (reply != null) {
+                reply.completeExceptionally(cause);
+            }
+            if (written != null) {
+                written.completeExceptionally(cause);
+            }
+        }
+    }
+}
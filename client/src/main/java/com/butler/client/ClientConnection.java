@@ -0,0 +1,132 @@
+package com.butler.client;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+class ClientConnection {
+    private final int index;
+    private final ByteBuffer input;
+    private final Queue<Outbound> output = new ArrayDeque<>();
+    private final Queue<Pending> pending = new ArrayDeque<>();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected;
+    private boolean pushesEnabled;
+    private int attempts;
+    private long reconnectAtNanos;
+
+    ClientConnection(int index, int inputCapacity) {
+        this.index = index;
+        this.input = ByteBuffer.allocate(inputCapacity);
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    ByteBuffer getInput() {
+        return input;
+    }
+
+    Queue<Outbound> getOutput() {
+        return output;
+    }
+
+    Queue<Pending> getPending() {
+        return pending;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setChannel(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    boolean isPushesEnabled() {
+        return pushesEnabled;
+    }
+
+    void setPushesEnabled(boolean pushesEnabled) {
+        this.pushesEnabled = pushesEnabled;
+    }
+
+    int nextAttempt() {
+        return ++attempts;
+    }
+
+    void resetAttempts() {
+        attempts = 0;
+    }
+
+    long getReconnectAtNanos() {
+        return reconnectAtNanos;
+    }
+
+    void setReconnectAtNanos(long reconnectAtNanos) {
+        this.reconnectAtNanos = reconnectAtNanos;
+    }
+
+    static class Outbound {
+        private final ByteBuffer frame;
+        private final CompletableFuture<Void> written;
+
+        Outbound(ByteBuffer frame, CompletableFuture<Void> written) {
+            this.frame = frame;
+            this.written = written;
+        }
+
+        ByteBuffer getFrame() {
+            return frame;
+        }
+
+        CompletableFuture<Void> getWritten() {
+            return written;
+        }
+    }
+
+    static class Pending {
+        private final CompletableFuture<String> reply;
+        private final long deadlineNanos;
+        private final long resetNanos;
+
+        Pending(CompletableFuture<String> reply, long deadlineNanos, long resetNanos) {
+            this.reply = reply;
+            this.deadlineNanos = deadlineNanos;
+            this.resetNanos = resetNanos;
+        }
+
+        CompletableFuture<String> getReply() {
+            return reply;
+        }
+
+        long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        long getResetNanos() {
+            return resetNanos;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.butler.client;
+
+import java.util.Properties;
+
+public class ClientSettings {
+    private int connections = 2;
+    private Framing framing = Framing.NEWLINE;
+    private int maxFrameLength = 65536;
+    private long requestTimeoutMs = 5000;
+    private long resetTimeoutMs = 15000;
+    private long reconnectMinMs = 100;
+    private long reconnectMaxMs = 10000;
+
+    public static ClientSettings fromProperties(Properties properties) {
+        ClientSettings settings = new ClientSettings();
+        settings.connections = Integer.parseInt(properties.getProperty("client_connections",
+                Integer.toString(settings.connections)));
+        settings.framing = Framing.fromName(properties.getProperty("framing"));
+        settings.maxFrameLength = Integer.parseInt(properties.getProperty("max_frame_length",
+                Integer.toString(settings.maxFrameLength)));
+        settings.requestTimeoutMs = Long.parseLong(properties.getProperty("client_request_timeout_ms",
+                Long.toString(settings.requestTimeoutMs)));
+        settings.resetTimeoutMs = Long.parseLong(properties.getProperty("client_reset_timeout_ms",
+                Long.toString(settings.resetTimeoutMs)));
+        settings.reconnectMinMs = Long.parseLong(properties.getProperty("client_reconnect_min_ms",
+                Long.toString(settings.reconnectMinMs)));
+        settings.reconnectMaxMs = Long.parseLong(properties.getProperty("client_reconnect_max_ms",
+                Long.toString(settings.reconnectMaxMs)));
+        return settings;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public ClientSettings setConnections(int connections) {
+        this.connections = connections;
+        return this;
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    public ClientSettings setFraming(Framing framing) {
+        this.framing = framing;
+        return this;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public ClientSettings setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public ClientSettings setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        return this;
+    }
+
+    public long getResetTimeoutMs() {
+        return resetTimeoutMs;
+    }
+
+    public ClientSettings setResetTimeoutMs(long resetTimeoutMs) {
+        this.resetTimeoutMs = resetTimeoutMs;
+        return this;
+    }
+
+    public long getReconnectMinMs() {
+        return reconnectMinMs;
+    }
+
+    public ClientSettings setReconnectMinMs(long reconnectMinMs) {
+        this.reconnectMinMs = reconnectMinMs;
+        return this;
+    }
+
+    public long getReconnectMaxMs() {
+        return reconnectMaxMs;
+    }
+
+    public ClientSettings setReconnectMaxMs(long reconnectMaxMs) {
+        this.reconnectMaxMs = reconnectMaxMs;
+        return this;
+    }
+}
@@ -0,0 +1,78 @@
+package com.butler.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+public enum Framing {
+    NEWLINE {
+        @Override
+        ByteBuffer encode(byte[] payload) {
+            ByteBuffer frame = ByteBuffer.allocate(payload.length + 1);
+            frame.put(payload).put(LF).flip();
+            return frame;
+        }
+
+        @Override
+        void decode(ByteBuffer in, int maxFrameLength, Consumer<byte[]> frames) throws IOException {
+            int start = in.position();
+            for (int i = start; i < in.limit(); ++i) {
+                if (in.get(i) != LF) {
+                    continue;
+                }
+                int end = i > start && in.get(i - 1) == CR ? i - 1 : i;
+                if (end > start) {
+                    frames.accept(copy(in, start, end - start));
+                }
+                start = i + 1;
+            }
+            in.position(start);
+            if (in.remaining() > maxFrameLength) {
+                throw new IOException("Frame longer than " + maxFrameLength + " bytes");
+            }
+        }
+    },
+    LENGTH {
+        @Override
+        ByteBuffer encode(byte[] payload) {
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + payload.length);
+            frame.putInt(payload.length).put(payload).flip();
+            return frame;
+        }
+
+        @Override
+        void decode(ByteBuffer in, int maxFrameLength, Consumer<byte[]> frames) throws IOException {
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.getInt(in.position());
+                if (length < 0 || length > maxFrameLength) {
+                    throw new IOException("Frame of " + length + " bytes, limit is " + maxFrameLength);
+                }
+                if (in.remaining() < Integer.BYTES + length) {
+                    return;
+                }
+                int start = in.position() + Integer.BYTES;
+                if (length > 0) {
+                    frames.accept(copy(in, start, length));
+                }
+                in.position(start + length);
+            }
+        }
+    };
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    abstract ByteBuffer encode(byte[] payload);
+
+    abstract void decode(ByteBuffer in, int maxFrameLength, Consumer<byte[]> frames) throws IOException;
+
+    public static Framing fromName(String name) {
+        return "length".equals(name) ? LENGTH : NEWLINE;
+    }
+
+    private static byte[] copy(ByteBuffer in, int offset, int length) {
+        byte[] frame = new byte[length];
+        in.get(offset, frame);
+        return frame;
+    }
+}
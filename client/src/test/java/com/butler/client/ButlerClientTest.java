@@ -0,0 +1,277 @@
+package com.butler.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ButlerClientTest {
+    private static final long WAIT_SEC = 5;
+    private static final String PUSH = "{\"command\":\"message\",\"content\":\"hi\"}";
+    private static final String LOGIN = "{\"command\":\"getUserByLoginPassword\",\"id\":\"1\"}";
+
+    private FakeServer server;
+    private ButlerClient client;
+    private final BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void isPushLooksForCommandField() {
+        assertTrue(ButlerClient.isPush(bytes(PUSH)));
+        assertTrue(ButlerClient.isPush(bytes("{\"command\" \t: \"history\"}")));
+        assertFalse(ButlerClient.isPush(bytes("{\"id\":1,\"login\":\"user\"}")));
+        assertFalse(ButlerClient.isPush(bytes("{\"content\":\"\\\"command\\\" was typed\"}")));
+        assertFalse(ButlerClient.isPush(bytes("\"command\"")));
+        assertFalse(ButlerClient.isPush(new byte[0]));
+    }
+
+    @Test
+    public void stringFieldReadsRawValue() {
+        byte[] login = bytes("{\"command\" : \"getUserByLogin\",\"user\":{\"login\":\"a\\\"b\"}}");
+        assertEquals("getUserByLogin", ButlerClient.stringField(login, bytes("\"command\"")));
+        assertEquals("a\\\"b", ButlerClient.stringField(login, bytes("\"login\"")));
+        assertNull(ButlerClient.stringField(bytes("{\"id\":1}"), bytes("\"id\"")));
+        assertNull(ButlerClient.stringField(bytes("{\"id\":\"1"), bytes("\"id\"")));
+    }
+
+    @Test
+    public void repliesAreMatchedInOrderAroundPushes() throws Exception {
+        server.respond(line -> List.of(PUSH, reply(line)));
+        client = connect(5000);
+        CompletableFuture<String> first = client.request(request("1"));
+        CompletableFuture<String> second = client.request(request("2"));
+        CompletableFuture<String> third = client.request(request("3"));
+        assertEquals(reply("1"), first.get(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals(reply("2"), second.get(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals(reply("3"), third.get(WAIT_SEC, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(PUSH, pushes.poll(WAIT_SEC, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void requestsWithoutReplyAreRejected() throws Exception {
+        server.respond(line -> List.of(reply(line)));
+        client = connect(5000);
+        assertCause(client.request("{\"command\":\"message\",\"content\":\"hi\"}"), IllegalArgumentException.class);
+        assertCause(client.request("{\"id\":1}"), IllegalArgumentException.class);
+        assertEquals(reply("1"), client.request(request("1")).get(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals(List.of(request("1")), server.lines(0));
+    }
+
+    @Test
+    public void timedOutRequestKeepsItsPlaceInTheQueue() throws Exception {
+        server.respond(line -> {
+            if (line.contains("slow")) {
+                sleep(800);
+            }
+            return List.of(reply(line));
+        });
+        client = connect(500);
+        assertCause(client.request(request("slow")), TimeoutException.class);
+        CompletableFuture<String> fast = client.request(request("fast"));
+        assertEquals(reply("fast"), fast.get(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals(1, server.accepted());
+    }
+
+    @Test
+    public void missingReplyResetsTheConnection() throws Exception {
+        server.respond(line -> line.contains("lost") ? List.of() : List.of(reply(line)));
+        client = new ButlerClient("127.0.0.1", server.getPort(), settings(200).setResetTimeoutMs(400), pushes::add);
+        assertCause(client.request(request("lost")), TimeoutException.class);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SEC);
+        while (server.accepted() < 2 && System.nanoTime() < deadline) {
+            sleep(10);
+        }
+        assertEquals(2, server.accepted());
+        assertEquals(reply("after"), client.request(request("after")).get(WAIT_SEC, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sessionStateIsRestoredAfterReconnect() throws Exception {
+        server.respond(line -> line.contains("drop") ? null : List.of(reply(line)));
+        client = connect(5000);
+        String join = "{\"command\":\"join\",\"id\":\"j\",\"topic\":\"kept\"}";
+        String leaveLobby = "{\"command\":\"leave\",\"id\":\"l\"}";
+        for (String session : List.of(LOGIN.replace("\"1\"", "\"0\""), "{\"command\":\"join\",\"topic\":\"gone\"}",
+                join, "{\"command\":\"leave\",\"topic\":\"gone\"}", leaveLobby, LOGIN)) {
+            client.session(session).get(WAIT_SEC, TimeUnit.SECONDS);
+        }
+        assertCause(client.request(request("drop")), IOException.class);
+        assertEquals(reply("2"), client.request(request("2")).get(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals(2, server.accepted());
+        assertEquals(List.of(LOGIN, join, leaveLobby, request("2")), server.lines(1));
+    }
+
+    @Test
+    public void sessionRejectsOtherCommands() throws Exception {
+        client = connect(5000);
+        assertCause(client.session(request("1")), IllegalArgumentException.class);
+    }
+
+    @Test
+    public void closeFromCallbackDoesNotDeadlock() throws Exception {
+        server.respond(line -> List.of(reply(line)));
+        client = connect(5000);
+        CompletableFuture<Void> closed = client.request(request("1")).thenRun(client::close);
+        closed.get(WAIT_SEC, TimeUnit.SECONDS);
+        assertCause(client.request(request("2")), IOException.class);
+    }
+
+    private ButlerClient connect(long requestTimeoutMs) throws IOException {
+        return new ButlerClient("127.0.0.1", server.getPort(), settings(requestTimeoutMs), pushes::add);
+    }
+
+    private static ClientSettings settings(long requestTimeoutMs) {
+        return new ClientSettings()
+                .setConnections(1)
+                .setRequestTimeoutMs(requestTimeoutMs)
+                .setReconnectMinMs(10)
+                .setReconnectMaxMs(50);
+    }
+
+    private static String request(String id) {
+        return "{\"command\":\"getUserByLogin\",\"id\":\"" + id + "\"}";
+    }
+
+    // Answers a request built by request(String) the way the server would, without the command field.
+    private static String reply(String requestOrId) {
+        String id = requestOrId.startsWith("{")
+                ? ButlerClient.stringField(bytes(requestOrId), bytes("\"id\"")) : requestOrId;
+        return "{\"id\":\"" + (id == null ? "" : id) + "\"}";
+    }
+
+    private static void assertCause(CompletableFuture<?> future, Class<? extends Exception> type) throws Exception {
+        try {
+            future.get(WAIT_SEC, TimeUnit.SECONDS);
+            fail("Expected " + type.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        }
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Newline-framed server that answers each request line with the frames returned by the responder, or drops the
+     * connection when the responder returns {@code null}.
+     */
+    private static class FakeServer implements AutoCloseable {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final List<List<String>> received = new CopyOnWriteArrayList<>();
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private volatile Function<String, List<String>> responder = line -> List.of();
+
+        FakeServer() throws IOException {
+            Thread acceptor = new Thread(this::accept, "fake-server");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        void respond(Function<String, List<String>> responder) {
+            this.responder = responder;
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int accepted() {
+            return received.size();
+        }
+
+        List<String> lines(int connection) {
+            return received.get(connection);
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    sockets.add(socket);
+                    List<String> lines = new CopyOnWriteArrayList<>();
+                    received.add(lines);
+                    Thread handler = new Thread(() -> serve(socket, lines), "fake-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket, List<String> lines) {
+            try (socket) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                    List<String> frames = responder.apply(line);
+                    if (frames == null) {
+                        return;
+                    }
+                    for (String frame : frames) {
+                        out.write(bytes(frame + "\n"));
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.butler.client;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FramingTest {
+    private static final int MAX_FRAME_LENGTH = 16;
+
+    @Test
+    public void newlineDecodesSeveralFramesAndKeepsPartialTail() throws IOException {
+        ByteBuffer in = buffer("one\ntwo\r\nthr");
+        List<String> frames = decode(Framing.NEWLINE, in);
+        assertEquals(List.of("one", "two"), frames);
+        assertEquals("thr", remaining(in));
+
+        in.compact().put("ee\n".getBytes(StandardCharsets.UTF_8)).flip();
+        assertEquals(List.of("three"), decode(Framing.NEWLINE, in));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void newlineSkipsEmptyLines() throws IOException {
+        assertEquals(List.of("a"), decode(Framing.NEWLINE, buffer("\n\r\na\n")));
+    }
+
+    @Test(expected = IOException.class)
+    public void newlineRejectsOversizePartialFrame() throws IOException {
+        decode(Framing.NEWLINE, buffer("x".repeat(MAX_FRAME_LENGTH + 1)));
+    }
+
+    @Test
+    public void lengthDecodesFrameSplitAcrossReads() throws IOException {
+        ByteBuffer frame = Framing.LENGTH.encode("hello".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put(frame.array(), 0, 3).flip();
+        assertEquals(List.of(), decode(Framing.LENGTH, in));
+        assertEquals(3, in.remaining());
+
+        in.compact().put(frame.array(), 3, frame.limit() - 3).flip();
+        assertEquals(List.of("hello"), decode(Framing.LENGTH, in));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void lengthDecodesBackToBackFrames() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put(Framing.LENGTH.encode("a".getBytes(StandardCharsets.UTF_8)))
+                .put(Framing.LENGTH.encode("bc".getBytes(StandardCharsets.UTF_8)))
+                .flip();
+        assertEquals(List.of("a", "bc"), decode(Framing.LENGTH, in));
+    }
+
+    @Test(expected = IOException.class)
+    public void lengthRejectsOversizeHeader() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(Integer.BYTES).putInt(MAX_FRAME_LENGTH + 1).flip();
+        decode(Framing.LENGTH, in);
+    }
+
+    @Test(expected = IOException.class)
+    public void lengthRejectsNegativeHeader() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip();
+        decode(Framing.LENGTH, in);
+    }
+
+    private static List<String> decode(Framing framing, ByteBuffer in) throws IOException {
+        List<String> frames = new ArrayList<>();
+        framing.decode(in, MAX_FRAME_LENGTH, frame -> frames.add(new String(frame, StandardCharsets.UTF_8)));
+        return frames;
+    }
+
+    private static ByteBuffer buffer(String content) {
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put(content.getBytes(StandardCharsets.UTF_8)).flip();
+        return in;
+    }
+
+    private static String remaining(ByteBuffer in) {
+        byte[] bytes = new byte[in.remaining()];
+        in.get(in.position(), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
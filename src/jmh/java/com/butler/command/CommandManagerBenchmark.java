@@ -0,0 +1,61 @@
+package com.butler.command;
+
+import com.butler.server.BenchmarkEvents;
+import com.butler.server.BenchmarkServer;
+import com.butler.util.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class CommandManagerBenchmark {
+    private CommandManager commandManager;
+    private byte[] getUserByLogin;
+    private byte[] getUserByLoginPassword;
+    private byte[] unknown;
+
+    @Setup
+    public void setup() {
+        UserCache cache = new UserCache();
+        cache.put(new User(42, "login", "password"), "password");
+        commandManager = new CommandManager(BenchmarkServer.database(), BenchmarkServer.sender(), cache);
+        getUserByLogin = request(Command.GET_USER_BY_LOGIN);
+        getUserByLoginPassword = request(Command.GET_USER_BY_LOGIN_PASSWORD);
+        unknown = request("unknown");
+    }
+
+    private static byte[] request(String command) {
+        return ("{\"command\":\"" + command + "\",\"user\":{\"id\":0,\"login\":\"login\",\"password\":\"password\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String getUserByLogin() {
+        return commandManager.execute(BenchmarkEvents.wrap(getUserByLogin));
+    }
+
+    @Benchmark
+    public String getUserByLoginPassword() {
+        return commandManager.execute(BenchmarkEvents.wrap(getUserByLoginPassword));
+    }
+
+    @Benchmark
+    public String unknownCommand() {
+        return commandManager.execute(BenchmarkEvents.wrap(unknown));
+    }
+}
@@ -0,0 +1,44 @@
+package com.butler.server;
+
+import com.butler.util.json.WireFormat;
+
+import java.nio.ByteBuffer;
+
+public final class BenchmarkEvents {
+    private BenchmarkEvents() {
+    }
+
+    public static ServerDataEvent wrap(byte[] request) {
+        return new DetachedEvent(new PooledBuffer(null, ByteBuffer.wrap(request)));
+    }
+
+    private static class DetachedEvent extends ServerDataEvent {
+        DetachedEvent(PooledBuffer data) {
+            super(null, null, data);
+        }
+
+        @Override
+        public boolean negotiate(WireFormat format) {
+            return false;
+        }
+
+        @Override
+        public boolean join(String topic) {
+            return false;
+        }
+
+        @Override
+        public boolean leave(String topic) {
+            return false;
+        }
+
+        @Override
+        public void bindUser(int userId) {
+        }
+
+        @Override
+        public boolean isBoundTo(String userTopic) {
+            return false;
+        }
+    }
+}
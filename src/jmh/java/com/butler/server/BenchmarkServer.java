@@ -0,0 +1,107 @@
+package com.butler.server;
+
+import com.butler.socket.ConnectionProperties;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.SenderSocketHandler;
+import com.butler.socket.StubChatRelay;
+import com.butler.socket.StubDatabase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Starts the real server in the benchmark JVM, against the stub database and chat relay on inproc sockets, the
+ * same way {@code LocalPipeline} does. Everything is started once per JVM and shared by the benchmarks of a fork.
+ */
+public final class BenchmarkServer {
+    private static boolean backendsStarted;
+    private static NioServer server;
+    private static DatabaseClient database;
+    private static SenderSocketHandler sender;
+
+    private BenchmarkServer() {
+    }
+
+    public static synchronized void startBackends() {
+        if (backendsStarted) {
+            return;
+        }
+        setDefault("butler_address", "127.0.0.1");
+        setDefault("butler_port", "0");
+        // Benchmark clients only read, so the idle timeout would evict them halfway through a run.
+        setDefault("timeout_sec", "3600");
+        setDefault("database_address", "inproc://bench-database");
+        setDefault("chat_sender_address", "inproc://bench-chat-in");
+        setDefault("chat_receiver_address", "inproc://bench-chat-out");
+        Properties properties = ConnectionProperties.getProperties();
+        startDaemon(StubDatabase.fromSystemProperties(properties.getProperty("database_address")), "stub-database");
+        startDaemon(StubChatRelay.fromSystemProperties(properties.getProperty("chat_sender_address"),
+                properties.getProperty("chat_receiver_address")), "stub-chat-relay");
+        backendsStarted = true;
+    }
+
+    public static synchronized NioServer startServer() throws IOException {
+        startBackends();
+        if (server == null) {
+            server = NioServer.start();
+        }
+        return server;
+    }
+
+    // Clients of the stub backends for benchmarks that drive CommandManager or Worker without the server's own.
+    public static synchronized DatabaseClient database() {
+        startBackends();
+        if (database == null) {
+            database = new DatabaseClient();
+            startDaemon(database, "benchmark-database-client");
+        }
+        return database;
+    }
+
+    public static synchronized SenderSocketHandler sender() {
+        startBackends();
+        if (sender == null) {
+            sender = new SenderSocketHandler();
+            startDaemon(sender, "benchmark-chat-sender");
+        }
+        return sender;
+    }
+
+    public static List<SocketChannel> connect(NioServer server, int count) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(
+                ConnectionProperties.getProperties().getProperty("butler_address"), server.getPort());
+        List<SocketChannel> channels = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            channels.add(SocketChannel.open(address));
+        }
+        return channels;
+    }
+
+    // Connects a client over loopback and hands the server end to the server directly, so the benchmark holds the
+    // Connection the reactor writes to.
+    static Connection adopt(NioServer server, List<SocketChannel> clients) throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            clients.add(SocketChannel.open(listener.getLocalAddress()));
+            return server.adopt(listener.accept());
+        }
+    }
+
+    private static void setDefault(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
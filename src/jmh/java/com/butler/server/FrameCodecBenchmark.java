@@ -0,0 +1,63 @@
+package com.butler.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrameCodecBenchmark {
+    private static final int FRAMES = 16;
+
+    @Param({FrameCodec.NEWLINE, FrameCodec.LENGTH_PREFIXED})
+    private String framing;
+
+    private FrameCodec codec;
+    private byte[] payload;
+    private ByteBuffer encoded;
+    private ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        codec = FrameCodec.LENGTH_PREFIXED.equals(framing)
+                ? new LengthPrefixedFrameCodec(65536) : new NewlineFrameCodec(65536);
+        payload = "{\"command\":\"message\",\"username\":\"login\",\"content\":\"Hello!\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        encoded = ByteBuffer.allocateDirect(codec.encodedLength(payload.length) * FRAMES);
+        for (int i = 0; i < FRAMES; ++i) {
+            codec.encode(payload, encoded);
+        }
+        encoded.flip();
+        out = ByteBuffer.allocateDirect(codec.encodedLength(payload.length));
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        out.clear();
+        codec.encode(payload, out);
+        return out;
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws FrameTooLongException {
+        ByteBuffer in = encoded.duplicate();
+        codec.decode(in, frame -> blackhole.consume(frame.remaining()));
+    }
+}
@@ -0,0 +1,118 @@
+package com.butler.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads every client channel on its own thread as fast as the server writes and counts the newline-framed frames,
+ * so benchmarks can wait until what they sent has actually been delivered.
+ */
+public class FrameSink implements Runnable, AutoCloseable {
+    private static final long AWAIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Selector selector;
+    private final List<SocketChannel> channels;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+    private final AtomicLong frames = new AtomicLong();
+    private final Thread thread;
+    private volatile Thread waiter;
+    private volatile long waitingFor;
+
+    public FrameSink(List<SocketChannel> channels) throws IOException {
+        this.channels = channels;
+        selector = Selector.open();
+        for (SocketChannel channel : channels) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        thread = new Thread(this, "frame-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    // Parks instead of spinning: the reactors, the relay and this sink must get the CPU the caller would burn.
+    public boolean awaitFrames(long target, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        waitingFor = target;
+        waiter = Thread.currentThread();
+        try {
+            long remaining;
+            while (frames.get() < target) {
+                if ((remaining = deadline - System.nanoTime()) <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    public void awaitFrames(long target) {
+        if (!awaitFrames(target, AWAIT_TIMEOUT_NANOS)) {
+            throw new IllegalStateException("Received " + frames.get() + " of " + target + " frames");
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        read((SocketChannel) key.channel());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void read(SocketChannel channel) throws IOException {
+        int count = 0;
+        while (channel.read(buffer) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (buffer.get() == '\n') {
+                    count++;
+                }
+            }
+            buffer.clear();
+        }
+        if (count > 0 && frames.addAndGet(count) >= waitingFor) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.butler.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Sends through NioServer.send from a non-reactor thread, like a worker does, and waits until the client has read
+// the whole batch: the time covers the inline write or the OutboundBuffer, the change request and the wakeup.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class OutboundBufferBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"64", "1024"})
+    private int messageSize;
+
+    private NioServer server;
+    private Connection connection;
+    private FrameSink sink;
+    private byte[] payload;
+    private long delivered;
+
+    @Setup
+    public void setup() throws IOException {
+        server = BenchmarkServer.startServer();
+        List<SocketChannel> clients = new ArrayList<>(1);
+        connection = BenchmarkServer.adopt(server, clients);
+        sink = new FrameSink(clients);
+        payload = new byte[messageSize];
+        Arrays.fill(payload, (byte) 'a');
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long sendAndFlush() {
+        for (int i = 0; i < BATCH; ++i) {
+            server.send(connection, payload);
+        }
+        delivered += BATCH;
+        sink.awaitFrames(delivered);
+        return delivered;
+    }
+}
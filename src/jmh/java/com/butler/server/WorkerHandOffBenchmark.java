@@ -0,0 +1,84 @@
+package com.butler.server;
+
+import com.butler.command.UserCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Hands getUserByLogin requests, answered from the cache after the first one, to a running Worker the way a reactor
+// does and waits for the replies on the client socket, so the time covers the queue hand-off, CommandManager and the
+// reply write.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class WorkerHandOffBenchmark {
+    private static final int BATCH = 64;
+
+    private NioServer server;
+    private Connection connection;
+    private FrameSink sink;
+    private BufferPool pool;
+    private Worker worker;
+    private Thread workerThread;
+    private byte[] request;
+    private long delivered;
+
+    @Setup
+    public void setup() throws IOException {
+        server = BenchmarkServer.startServer();
+        List<SocketChannel> clients = new ArrayList<>(1);
+        connection = BenchmarkServer.adopt(server, clients);
+        sink = new FrameSink(clients);
+        pool = new BufferPool(false, 131072, 4096, false);
+        worker = new Worker(BATCH, BenchmarkServer.database(), BenchmarkServer.sender(), new UserCache());
+        workerThread = new Thread(worker, "benchmark-worker");
+        workerThread.setDaemon(true);
+        workerThread.start();
+        request = "{\"command\":\"getUserByLogin\",\"user\":{\"id\":0,\"login\":\"login\",\"password\":\"\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        workerThread.interrupt();
+        workerThread.join();
+        sink.close();
+        // every request has been answered by now, so the worker must have handed all of them back
+        if (pool.getOutstanding() != 0) {
+            throw new IllegalStateException("Worker leaked request buffers: " + pool);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long handOff() {
+        for (int i = 0; i < BATCH; ++i) {
+            PooledBuffer data = pool.acquire(request.length);
+            data.buffer().put(request).flip();
+            connection.frameQueued();
+            worker.processData(server, connection, data);
+        }
+        delivered += BATCH;
+        sink.awaitFrames(delivered);
+        return delivered;
+    }
+}
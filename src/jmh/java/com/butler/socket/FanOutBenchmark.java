@@ -0,0 +1,98 @@
+package com.butler.socket;
+
+import com.butler.server.BenchmarkServer;
+import com.butler.server.FrameSink;
+import com.butler.server.NioServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Publishes one lobby message into the stub relay per invocation and waits until every client has read it, so
+// the time covers the ReceiverSocketHandler delivery loop, NioServer.send and the reactor writes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class FanOutBenchmark {
+    private static final long SUBSCRIBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"100", "1000"})
+    private int clients;
+
+    private ZMQ.Socket publisher;
+    private FrameSink sink;
+    private byte[] frame;
+    private long delivered;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        NioServer server = BenchmarkServer.startServer();
+        sink = new FrameSink(BenchmarkServer.connect(server, clients));
+        publisher = ZmqContextHolder.getContext().socket(ZMQ.PUSH);
+        publisher.setLinger(0);
+        publisher.connect(ConnectionProperties.getProperties().getProperty("chat_sender_address"));
+        byte[] prefix = ReceiverSocketHandler.topicPrefix(ReceiverSocketHandler.DEFAULT_TOPIC);
+        byte[] payload = ("{\"command\":\"message\",\"username\":\"login\","
+                + "\"content\":\"Hello, everyone in the lobby!\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        frame = Arrays.copyOf(prefix, prefix.length + payload.length);
+        System.arraycopy(payload, 0, frame, prefix.length, payload.length);
+        awaitSubscribed();
+    }
+
+    // The lobby subscription reaches the relay asynchronously and the acceptor may still be registering clients,
+    // so probe until one round reaches exactly every client once the earlier, partial rounds have drained.
+    private void awaitSubscribed() throws InterruptedException {
+        long deadline = System.nanoTime() + SUBSCRIBE_TIMEOUT_NANOS;
+        do {
+            long before = settle();
+            publisher.send(frame, 0);
+            if (sink.awaitFrames(before + clients, PROBE_TIMEOUT_NANOS) && settle() == before + clients) {
+                delivered = before + clients;
+                return;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        throw new IllegalStateException("Lobby messages did not reach " + clients + " clients");
+    }
+
+    private long settle() throws InterruptedException {
+        long frames;
+        do {
+            frames = sink.getFrames();
+            TimeUnit.NANOSECONDS.sleep(PROBE_TIMEOUT_NANOS);
+        } while (sink.getFrames() != frames);
+        return frames;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        publisher.close();
+        sink.close();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        publisher.send(frame, 0);
+        delivered += clients;
+        sink.awaitFrames(delivered);
+        return delivered;
+    }
+}
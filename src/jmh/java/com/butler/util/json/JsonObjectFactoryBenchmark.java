@@ -0,0 +1,48 @@
+package com.butler.util.json;
+
+import com.butler.util.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonObjectFactoryBenchmark {
+    private final User user = new User(42, "login", "password");
+    private final JsonMessage message = new JsonMessage("message", "login", "Hello, everyone in the lobby!");
+    private final byte[] userJson = JsonObjectFactory.getJsonString(user).getBytes(StandardCharsets.UTF_8);
+    private final byte[] messageJson = JsonObjectFactory.getJsonString(message).getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public String encodeUser() {
+        return JsonObjectFactory.getJsonString(user);
+    }
+
+    @Benchmark
+    public User decodeUser() {
+        return JsonObjectFactory.getObjectFromJson(userJson, 0, userJson.length, User.class);
+    }
+
+    @Benchmark
+    public String encodeMessage() {
+        return JsonObjectFactory.getJsonString(message);
+    }
+
+    @Benchmark
+    public JsonMessage decodeMessage() {
+        return JsonObjectFactory.getObjectFromJson(messageJson, 0, messageJson.length, JsonMessage.class);
+    }
+}
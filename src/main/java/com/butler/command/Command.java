@@ -1,11 +1,18 @@
 package com.butler.command;
 
+import com.butler.server.ServerDataEvent;
+
+import java.nio.ByteBuffer;
+
 interface Command {
     String GET_USER_BY_LOGIN_PASSWORD = "getUserByLoginPassword";
     String NEW_USER = "newUser";
     String GET_USER_BY_LOGIN = "getUserByLogin";
     String MESSAGE = "message";
+    String PROTOCOL = "protocol";
+    String JOIN = "join";
+    String LEAVE = "leave";
     String NO_COMMAND = "";
 
-    String execute(String request);
+    String execute(ServerDataEvent dataEvent, ByteBuffer request);
 }
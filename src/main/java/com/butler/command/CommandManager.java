@@ -1,58 +1,194 @@
 package com.butler.command;
 
+import com.butler.metrics.Histogram;
+import com.butler.metrics.Metrics;
 import com.butler.server.ServerDataEvent;
-import com.butler.socket.DatabaseSocketHandler;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.ReceiverSocketHandler;
 import com.butler.socket.SenderSocketHandler;
 import com.butler.util.entity.User;
-import com.butler.util.json.JsonMessage;
+import com.butler.util.json.CommandScanner;
 import com.butler.util.json.JsonObject;
 import com.butler.util.json.JsonObjectFactory;
-import org.zeromq.ZMQ;
+import com.butler.util.json.WireFormat;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class CommandManager {
-    private SenderSocketHandler sender = new SenderSocketHandler();
+    private SenderSocketHandler sender;
+    private DatabaseClient database;
+    private UserCache cache;
     private String DEFAULT_REPLY = "";
+    private static final String ENCODING_FIELD = "encoding";
+    private static final String TOPIC_FIELD = "topic";
+    private static final String MEMBER_FIELD = "member";
+    private static final String TO_FIELD = "to";
+    private static final String COMMAND_FIELD = "command";
+    private static final String ERROR_FIELD = "error";
+    private static final String REJECTED = "rejected";
+    private static final Histogram UNKNOWN_LATENCY = Metrics.histogram("command.unknown.latency.nanos");
 
     private Map<String, Command> commandMap = new ConcurrentHashMap<String, Command>() {{
-        Command databaseCommand = request -> {
-            try (DatabaseSocketHandler handler = new DatabaseSocketHandler()) {
-                handler.send(request);
-                String reply = handler.receive();
-                User user = JsonObjectFactory.getObjectFromJson(reply, User.class);
-                return JsonObjectFactory.getJsonString(Optional.ofNullable(user).orElse(new User()));
-            } catch (Exception e) {
-                e.printStackTrace();
+        put(Command.GET_USER_BY_LOGIN_PASSWORD, (dataEvent, request) -> {
+            User requested = requestedUser(request);
+            User cached = cache.get(requested.getLogin(), requested.getPassword());
+            if (cached != null) {
+                bindUser(dataEvent, cached);
+                return JsonObjectFactory.getJsonString(cached);
             }
-            return DEFAULT_REPLY;
-        };
-        put(Command.GET_USER_BY_LOGIN_PASSWORD, databaseCommand);
-        put(Command.GET_USER_BY_LOGIN, databaseCommand);
-        put(Command.NEW_USER, databaseCommand);
-        put(Command.MESSAGE, request -> {
-            sender.send(request);
-            System.out.println(request);
-            return DEFAULT_REPLY;
+            User user = queryDatabase(request);
+            if (user != null) {
+                cache.put(user, requested.getPassword());
+                bindUser(dataEvent, user);
+            }
+            return reply(user, requested.getPassword());
+        });
+        put(Command.GET_USER_BY_LOGIN, (dataEvent, request) -> {
+            User requested = requestedUser(request);
+            User cached = cache.get(requested.getLogin());
+            if (cached != null) {
+                return JsonObjectFactory.getJsonString(cached);
+            }
+            User user = queryDatabase(request);
+            if (user != null && user.getId() != 0) {
+                cache.put(user, null);
+            } else if (user != null) {
+                cache.putMissing(requested.getLogin());
+            }
+            return reply(user, null);
+        });
+        put(Command.NEW_USER, (dataEvent, request) -> {
+            User requested = requestedUser(request);
+            cache.invalidate(requested.getLogin());
+            User user = queryDatabase(request);
+            if (user != null) {
+                cache.put(user, requested.getPassword());
+            }
+            return reply(user);
+        });
+        put(Command.MESSAGE, (dataEvent, request) -> {
+            int to = CommandScanner.scanInt(request.array(), request.arrayOffset() + request.position(),
+                    request.remaining(), TO_FIELD);
+            String topic = to != 0 ? ReceiverSocketHandler.userTopic(to) : requestedTopic(request);
+            if (sender.send(topic, request.array(), request.arrayOffset() + request.position(), request.remaining())) {
+                return DEFAULT_REPLY;
+            }
+            return rejected(topic);
         });
     }};
 
-    public String execute(ServerDataEvent dataEvent) {
-        String json = new String(dataEvent.getData());
-        JsonObject databaseRequest = JsonObjectFactory.getObjectFromJson(json, JsonObject.class);
-        JsonMessage message = JsonObjectFactory.getObjectFromJson(json, JsonMessage.class);
+    private Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+
+    public CommandManager(DatabaseClient database, SenderSocketHandler sender, UserCache cache) {
+        this.database = database;
+        this.sender = sender;
+        this.cache = cache;
+        for (String name : commandMap.keySet()) {
+            latencies.put(name, Metrics.histogram("command." + name + ".latency.nanos"));
+        }
+    }
 
-        Optional<JsonMessage> messageOptional = Optional.ofNullable(message);
-        Optional<JsonObject> databaseRequestOptional = Optional.ofNullable(databaseRequest);
+    private String negotiate(ServerDataEvent dataEvent, ByteBuffer request) {
+        String encoding = CommandScanner.scan(request.array(), request.arrayOffset() + request.position(),
+                request.remaining(), ENCODING_FIELD);
+        WireFormat format = WireFormat.fromName(encoding);
+        if (!dataEvent.negotiate(format)) {
+            format = dataEvent.getWireFormat();
+        }
+        return JsonObjectFactory.getJsonString(Collections.singletonMap(ENCODING_FIELD, format.getName()));
+    }
 
-        String stringCommand = databaseRequestOptional.map(JsonObject::getCommand)
-                .orElseGet(() -> messageOptional.map(JsonMessage::getCommand).orElse(Command.NO_COMMAND));
+    private String membership(ServerDataEvent dataEvent, ByteBuffer request, boolean join) {
+        String topic = requestedTopic(request);
+        boolean member = false;
+        if (ReceiverSocketHandler.isUserTopic(topic)) {
+            member = dataEvent.isBoundTo(topic);
+        } else if (join) {
+            member = dataEvent.join(topic);
+        } else {
+            dataEvent.leave(topic);
+        }
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put(TOPIC_FIELD, topic);
+        reply.put(MEMBER_FIELD, member);
+        return JsonObjectFactory.getJsonString(reply);
+    }
 
-        Command command = commandMap.getOrDefault(stringCommand, request -> Command.NO_COMMAND);
-        String jsonString = databaseRequestOptional.map(JsonObjectFactory::getJsonString)
-                .orElseGet(() -> messageOptional.map(JsonObjectFactory::getJsonString).orElse(Command.NO_COMMAND));
-        return command.execute(jsonString);
+    // Sent messages get no reply, so a rejected one is reported like a push, with the command it belongs to.
+    private static String rejected(String topic) {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put(COMMAND_FIELD, Command.MESSAGE);
+        reply.put(TOPIC_FIELD, topic);
+        reply.put(ERROR_FIELD, REJECTED);
+        return JsonObjectFactory.getJsonString(reply);
+    }
+
+    private static void bindUser(ServerDataEvent dataEvent, User user) {
+        if (user.getId() != 0) {
+            dataEvent.bindUser(user.getId());
+        }
+    }
+
+    private static String requestedTopic(ByteBuffer request) {
+        String topic = CommandScanner.scan(request.array(), request.arrayOffset() + request.position(),
+                request.remaining(), TOPIC_FIELD);
+        return topic.isEmpty() ? ReceiverSocketHandler.DEFAULT_TOPIC : topic;
+    }
+
+    private User queryDatabase(ByteBuffer request) {
+        byte[] message = new byte[request.remaining()];
+        request.duplicate().get(message);
+        try {
+            String reply = database.request(message).get();
+            return Optional.ofNullable(JsonObjectFactory.getObjectFromJson(reply, User.class)).orElse(new User());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private String reply(User user) {
+        return user == null ? DEFAULT_REPLY : JsonObjectFactory.getJsonString(user);
+    }
+
+    // Lookups answer with the same projection whether or not the cache hit: the id, the login and only a password
+    // the client supplied itself.
+    private String reply(User user, String password) {
+        if (user == null) {
+            return DEFAULT_REPLY;
+        }
+        return JsonObjectFactory.getJsonString(user.getId() == 0 ? new User()
+                : new User(user.getId(), user.getLogin(), password));
+    }
+
+    private static User requestedUser(ByteBuffer request) {
+        return Optional.ofNullable(JsonObjectFactory.getObjectFromJson(request.array(),
+                request.arrayOffset() + request.position(), request.remaining(), JsonObject.class))
+                .map(JsonObject::getUser)
+                .orElse(new User());
+    }
+
+    public String execute(ServerDataEvent dataEvent) {
+        ByteBuffer data = WireFormat.toJson(dataEvent.getData());
+        String stringCommand = CommandScanner.scan(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        if (Command.PROTOCOL.equals(stringCommand)) {
+            return negotiate(dataEvent, data);
+        }
+        dataEvent.commandSeen();
+        if (Command.JOIN.equals(stringCommand) || Command.LEAVE.equals(stringCommand)) {
+            return membership(dataEvent, data, Command.JOIN.equals(stringCommand));
+        }
+        long start = System.nanoTime();
+        Command command = commandMap.getOrDefault(stringCommand, (event, request) -> Command.NO_COMMAND);
+        try {
+            return command.execute(dataEvent, data);
+        } finally {
+            latencies.getOrDefault(stringCommand, UNKNOWN_LATENCY).recordSince(start);
+        }
     }
 }
@@ -0,0 +1,209 @@
+package com.butler.command;
+
+import com.butler.socket.ConnectionProperties;
+import com.butler.util.entity.User;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class UserCache {
+    private static final int SALT_LENGTH = 16;
+
+    private final int maxSize;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final SecureRandom random = new SecureRandom();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Map<String, CachedUser> entries;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public UserCache() {
+        Properties properties = ConnectionProperties.getProperties();
+        maxSize = Integer.parseInt(properties.getProperty("user_cache_max_size"));
+        ttlMs = Long.parseLong(properties.getProperty("user_cache_ttl_ms"));
+        negativeTtlMs = Long.parseLong(properties.getProperty("user_cache_negative_ttl_ms"));
+        entries = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    User get(String login) {
+        CachedUser entry = lookup(login);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.copy(null);
+    }
+
+    User get(String login, String password) {
+        CachedUser entry = lookup(login);
+        if (entry == null || (entry.id != 0 && !entry.matches(password))) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.copy(password);
+    }
+
+    void put(User user, String password) {
+        if (user.getId() == 0 || user.getLogin() == null) {
+            return;
+        }
+        if (password == null) {
+            refresh(user);
+            return;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = hash(salt, password);
+        store(user.getLogin(), new CachedUser(user.getId(), user.getLogin(), salt, hash, System.currentTimeMillis() + ttlMs));
+    }
+
+    // A lookup without a password proves nothing about it. A live entry of the same user keeps its proven hash and
+    // its expiry, so lookups cannot extend how long a password is trusted.
+    private void refresh(User user) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            CachedUser existing = entries.get(user.getLogin());
+            if (existing == null || existing.id != user.getId() || existing.expiresAt <= now) {
+                entries.put(user.getLogin(), new CachedUser(user.getId(), user.getLogin(), null, null, now + ttlMs));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void putMissing(String login) {
+        if (login == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            CachedUser existing = entries.get(login);
+            if (existing == null || existing.id == 0 || existing.expiresAt <= now) {
+                entries.put(login, new CachedUser(0, login, null, null, now + negativeTtlMs));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(String login) {
+        lock.lock();
+        try {
+            entries.remove(login);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CachedUser lookup(String login) {
+        if (login == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            CachedUser entry = entries.get(login);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(login);
+                evictions.increment();
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String login, CachedUser entry) {
+        if (login == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            entries.put(login, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] hash(byte[] salt, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedUser {
+        private final int id;
+        private final String login;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final long expiresAt;
+
+        CachedUser(int id, String login, byte[] salt, byte[] hash, long expiresAt) {
+            this.id = id;
+            this.login = login;
+            this.salt = salt;
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean matches(String password) {
+            return hash != null && password != null && MessageDigest.isEqual(hash, hash(salt, password));
+        }
+
+        User copy(String password) {
+            if (id == 0) {
+                return new User();
+            }
+            return new User(id, login, password);
+        }
+    }
+}
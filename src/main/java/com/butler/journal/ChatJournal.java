@@ -0,0 +1,278 @@
+package com.butler.journal;
+
+import com.butler.socket.ConnectionProperties;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ChatJournal {
+    private static final String CURSORS = "cursors";
+    private static final long MAINTENANCE_INTERVAL_MS = 1000;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionMs;
+    private final long retentionBytes;
+    private final List<JournalSegment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Long> cursors = new ConcurrentHashMap<>();
+    private final AtomicBoolean cursorsDirty = new AtomicBoolean();
+    private final Object standbyLock = new Object();
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private JournalSegment active;
+    private volatile long endOffset;
+    private JournalSegment standby;
+    private long nextBaseOffset;
+    private boolean closed;
+
+    public ChatJournal(Path directory, int segmentBytes, long retentionMs, long retentionBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionMs = retentionMs;
+        this.retentionBytes = retentionBytes;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (JournalSegment.isSegment(path)) {
+                    files.add(path);
+                }
+            }
+        }
+        Collections.sort(files);
+        for (Path path : files) {
+            JournalSegment segment = JournalSegment.open(path);
+            if (segment.getSize() > 0) {
+                segments.add(segment);
+            } else {
+                segment.release();
+            }
+        }
+        endOffset = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getEndOffset();
+        loadCursors();
+        active = JournalSegment.create(directory, endOffset, segmentBytes);
+        segments.add(active);
+        nextBaseOffset = active.getBaseOffset() + segmentBytes;
+        maintenance.execute(this::prepareStandby);
+        maintenance.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_MS, MAINTENANCE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static ChatJournal fromProperties() throws IOException {
+        Properties properties = ConnectionProperties.getProperties();
+        if (!Boolean.parseBoolean(properties.getProperty("journal_enabled"))) {
+            return null;
+        }
+        return new ChatJournal(Paths.get(properties.getProperty("journal_dir")),
+                Integer.parseInt(properties.getProperty("journal_segment_bytes")),
+                Long.parseLong(properties.getProperty("journal_retention_ms")),
+                Long.parseLong(properties.getProperty("journal_retention_bytes")));
+    }
+
+    public long getStartOffset() {
+        return segments.isEmpty() ? endOffset : segments.get(0).getBaseOffset();
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Appends a frame and returns the offset it was written at, or -1 if it was too long to journal. Only one
+     * thread may append; rolling over to the next segment swaps in a file the journal thread mapped ahead of
+     * time, and sealing, retention and cursor persistence all happen on that thread. Returns -1 once closed.
+     */
+    public synchronized long append(ByteBuffer frame) throws IOException {
+        if (closed || frame.remaining() > segmentBytes) {
+            return -1;
+        }
+        if (!active.append(frame.duplicate())) {
+            roll();
+            active.append(frame.duplicate());
+        }
+        endOffset = active.getEndOffset();
+        return endOffset - frame.remaining();
+    }
+
+    public List<FileRegion> read(long from, long to) {
+        List<FileRegion> regions = new ArrayList<>();
+        for (JournalSegment segment : segments) {
+            long start = Math.max(from, segment.getBaseOffset());
+            long end = Math.min(to, segment.getEndOffset());
+            if (start < end && segment.retain()) {
+                regions.add(new FileRegion(segment, start - segment.getBaseOffset(), end - start));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the offset the user's lobby history resumes from, or -1 for a user the journal has not seen. Cursors
+     * only advance when a user disconnects and are persisted by the journal thread about once a second, so after a
+     * crash a returning user may be replayed messages it already received: replay is at-least-once.
+     */
+    public long getCursor(int userId) {
+        return cursors.getOrDefault(userId, -1L);
+    }
+
+    public void updateCursor(int userId, long offset) {
+        cursors.merge(userId, offset, Math::max);
+        cursorsDirty.set(true);
+    }
+
+    // The standby is created under the same lock the roll takes it under, so both never create the same segment
+    // and a standby prepared for an offset the appender has already rolled past is never swapped in.
+    private void roll() throws IOException {
+        JournalSegment sealed = active;
+        JournalSegment next;
+        synchronized (standbyLock) {
+            next = standby;
+            standby = null;
+            if (next == null) {
+                next = JournalSegment.create(directory, nextBaseOffset, segmentBytes);
+            }
+            nextBaseOffset += segmentBytes;
+        }
+        segments.add(next);
+        active = next;
+        maintenance.execute(() -> {
+            try {
+                sealed.seal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            prepareStandby();
+            applyRetention(System.currentTimeMillis());
+        });
+    }
+
+    private void prepareStandby() {
+        synchronized (standbyLock) {
+            if (standby != null) {
+                return;
+            }
+            try {
+                standby = JournalSegment.create(directory, nextBaseOffset, segmentBytes);
+            } catch (IOException e) {
+                // the appender creates the segment itself when it rolls
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops the journal thread, seals the active segment, saves the cursors and unmaps the segments, keeping their
+     * files for the next start. Regions already handed out stay readable until they are released.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (standbyLock) {
+            if (standby != null) {
+                // still empty, so its file is deleted
+                standby.release();
+                standby = null;
+            }
+        }
+        try {
+            active.seal();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        saveCursors();
+        List<JournalSegment> closing = new ArrayList<>(segments);
+        segments.clear();
+        closing.forEach(JournalSegment::close);
+    }
+
+    private void maintain() {
+        applyRetention(System.currentTimeMillis());
+        saveCursors();
+    }
+
+    private void applyRetention(long now) {
+        long total = 0;
+        for (JournalSegment segment : segments) {
+            total += segment.getSize();
+        }
+        while (segments.size() > 1) {
+            JournalSegment oldest = segments.get(0);
+            if (total <= retentionBytes && now - oldest.getCreatedAt() <= retentionMs) {
+                break;
+            }
+            segments.remove(0);
+            total -= oldest.getSize();
+            oldest.release();
+        }
+    }
+
+    private void loadCursors() throws IOException {
+        Path path = directory.resolve(CURSORS);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(path); DataInputStream data = new DataInputStream(in)) {
+            int count = data.readInt();
+            for (int i = 0; i < count; ++i) {
+                cursors.put(data.readInt(), data.readLong());
+            }
+        }
+    }
+
+    private void saveCursors() {
+        if (!cursorsDirty.getAndSet(false)) {
+            return;
+        }
+        Path temporary = directory.resolve(CURSORS + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary); DataOutputStream data = new DataOutputStream(out)) {
+                Map<Integer, Long> snapshot = new HashMap<>(cursors);
+                data.writeInt(snapshot.size());
+                for (Map.Entry<Integer, Long> cursor : snapshot.entrySet()) {
+                    data.writeInt(cursor.getKey());
+                    data.writeLong(cursor.getValue());
+                }
+            }
+            Files.move(temporary, directory.resolve(CURSORS), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            cursorsDirty.set(true);
+            e.printStackTrace();
+        }
+    }
+}
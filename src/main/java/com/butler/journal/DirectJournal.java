@@ -0,0 +1,155 @@
+package com.butler.journal;
+
+import com.butler.socket.ConnectionProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Journals direct messages so users who were offline get them when they come back. The frames go to a journal of
+ * their own, and every frame gets a fixed-size record in a second, much smaller journal naming its recipient. The
+ * records are kept in memory per user and read back on start, so finding a user's messages never scans the frames.
+ */
+public class DirectJournal {
+    private static final String MESSAGES = "direct";
+    private static final String INDEX = "direct-index";
+    private static final int RECORD_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int INDEX_SEGMENT_BYTES = RECORD_BYTES * 65536;
+
+    private final ChatJournal messages;
+    private final ChatJournal index;
+    private final Map<Integer, Queue<Entry>> entries = new ConcurrentHashMap<>();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+
+    public DirectJournal(Path directory, int segmentBytes, long retentionMs, long retentionBytes) throws IOException {
+        messages = new ChatJournal(directory.resolve(MESSAGES), segmentBytes, retentionMs, retentionBytes);
+        index = new ChatJournal(directory.resolve(INDEX), INDEX_SEGMENT_BYTES, retentionMs, retentionBytes);
+        loadIndex();
+    }
+
+    public static DirectJournal fromProperties() throws IOException {
+        Properties properties = ConnectionProperties.getProperties();
+        if (!Boolean.parseBoolean(properties.getProperty("journal_enabled"))) {
+            return null;
+        }
+        return new DirectJournal(Paths.get(properties.getProperty("journal_dir")),
+                Integer.parseInt(properties.getProperty("journal_segment_bytes")),
+                Long.parseLong(properties.getProperty("journal_retention_ms")),
+                Long.parseLong(properties.getProperty("journal_retention_bytes")));
+    }
+
+    public long getEndOffset() {
+        return messages.getEndOffset();
+    }
+
+    /**
+     * Appends a frame addressed to the user and returns the offset it was written at, or -1 if it was not
+     * journaled. Only one thread may append.
+     */
+    public long append(int userId, ByteBuffer frame) throws IOException {
+        int length = frame.remaining();
+        long offset = messages.append(frame);
+        if (offset < 0) {
+            return offset;
+        }
+        record.clear();
+        record.putInt(userId).putLong(offset).putInt(length).flip();
+        index.append(record);
+        remember(userId, new Entry(offset, length));
+        return offset;
+    }
+
+    // Messages the retention of the frames already dropped are forgotten here too.
+    public List<FileRegion> read(int userId, long from, long to) {
+        List<FileRegion> regions = new ArrayList<>();
+        Queue<Entry> queue = entries.get(userId);
+        if (queue == null) {
+            return regions;
+        }
+        long start = messages.getStartOffset();
+        for (Entry head = queue.peek(); head != null && head.offset < start; head = queue.peek()) {
+            queue.poll();
+        }
+        entries.computeIfPresent(userId, (id, current) -> current.isEmpty() ? null : current);
+        for (Entry entry : queue) {
+            if (entry.offset >= from && entry.offset < to) {
+                regions.addAll(messages.read(entry.offset, entry.offset + entry.length));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the offset the user's direct messages resume from, or -1 for a user the journal has not seen. Like
+     * the lobby cursors these are saved about once a second, so replay is at-least-once.
+     */
+    public long getCursor(int userId) {
+        return messages.getCursor(userId);
+    }
+
+    public void updateCursor(int userId, long offset) {
+        messages.updateCursor(userId, offset);
+    }
+
+    public void close() {
+        messages.close();
+        index.close();
+    }
+
+    // The queue is only ever added to inside compute, so it can't be added to just as read() drops it for being empty.
+    private void remember(int userId, Entry entry) {
+        entries.compute(userId, (id, queue) -> {
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<>();
+            }
+            queue.add(entry);
+            return queue;
+        });
+    }
+
+    private void loadIndex() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (FileRegion region : index.read(index.getStartOffset(), index.getEndOffset())) {
+            try {
+                while (!region.isDone()) {
+                    region.transferTo(channel);
+                }
+            } finally {
+                region.release();
+            }
+        }
+        ByteBuffer records = ByteBuffer.wrap(out.toByteArray());
+        long start = messages.getStartOffset();
+        while (records.remaining() >= RECORD_BYTES) {
+            int userId = records.getInt();
+            long offset = records.getLong();
+            int length = records.getInt();
+            if (offset >= start) {
+                remember(userId, new Entry(offset, length));
+            }
+        }
+    }
+
+    private static final class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.butler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public final class FileRegion {
+    private final JournalSegment segment;
+    private final ByteBuffer data;
+    private long position;
+    private long remaining;
+
+    FileRegion(JournalSegment segment, long position, long count) {
+        this.segment = segment;
+        this.data = null;
+        this.position = position;
+        this.remaining = count;
+    }
+
+    private FileRegion(ByteBuffer data) {
+        this.segment = null;
+        this.data = data;
+        this.remaining = data.remaining();
+    }
+
+    public static FileRegion wrap(ByteBuffer data) {
+        return new FileRegion(data);
+    }
+
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long written = segment != null ? segment.getChannel().transferTo(position, remaining, target)
+                : target.write(data);
+        position += written;
+        remaining -= written;
+        return written;
+    }
+
+    public boolean isDone() {
+        return remaining == 0;
+    }
+
+    public void release() {
+        if (segment != null) {
+            segment.release();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.butler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class JournalSegment {
+    private static final String SUFFIX = ".log";
+
+    private final long baseOffset;
+    private final Path path;
+    private final FileChannel channel;
+    private final long createdAt;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    private MappedByteBuffer map;
+    private volatile int size;
+    private volatile boolean kept;
+
+    private JournalSegment(long baseOffset, Path path, FileChannel channel, long createdAt, int size) {
+        this.baseOffset = baseOffset;
+        this.path = path;
+        this.channel = channel;
+        this.createdAt = createdAt;
+        this.size = size;
+    }
+
+    static JournalSegment create(Path directory, long baseOffset, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(baseOffset));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        JournalSegment segment = new JournalSegment(baseOffset, path, channel, System.currentTimeMillis(), 0);
+        segment.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return segment;
+    }
+
+    static JournalSegment open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = (int) channel.size();
+        if (size > 0) {
+            MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while (size > 0 && contents.get(size - 1) == 0) {
+                size--;
+            }
+            channel.truncate(size);
+        }
+        return new JournalSegment(baseOffset, path, channel, Files.getLastModifiedTime(path).toMillis(), size);
+    }
+
+    static boolean isSegment(Path path) {
+        return path.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    private static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SUFFIX);
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getEndOffset() {
+        return baseOffset + size;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    boolean append(ByteBuffer frame) {
+        if (map == null || map.remaining() < frame.remaining()) {
+            return false;
+        }
+        map.put(frame);
+        size = map.position();
+        return true;
+    }
+
+    void seal() throws IOException {
+        if (map != null) {
+            map.force();
+            map = null;
+            channel.truncate(size);
+        }
+    }
+
+    boolean retain() {
+        int current;
+        do {
+            current = refCnt.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!refCnt.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    // Drops the journal's own reference like release(), but keeps the file for the next start.
+    void close() {
+        kept = true;
+        release();
+    }
+
+    void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            map = null;
+            try {
+                channel.close();
+                if (!kept) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
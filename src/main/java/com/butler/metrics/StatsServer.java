@@ -0,0 +1,27 @@
+package com.butler.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class StatsServer implements Runnable {
+    private final ServerSocket serverSocket;
+
+    public StatsServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Socket socket = serverSocket.accept(); OutputStream out = socket.getOutputStream()) {
+                out.write(Metrics.render().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.butler.server;
+
+import com.butler.socket.ConnectionProperties;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 8;
+
+    private final boolean direct;
+    private final int maxPerClass;
+    private final Queue<ByteBuffer>[] freeLists;
+    private final AtomicInteger[] pooled;
+    private final Map<ByteBuffer, Throwable> leaks;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+
+    public BufferPool(boolean direct, int maxBufferSize, int maxPerClass, boolean leakDetection) {
+        this.direct = direct;
+        this.maxPerClass = maxPerClass;
+        int classes = sizeClass(maxBufferSize) + 1;
+        freeLists = newFreeLists(classes);
+        pooled = new AtomicInteger[classes];
+        for (int i = 0; i < classes; ++i) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+            pooled[i] = new AtomicInteger();
+        }
+        leaks = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Queue<ByteBuffer>[] newFreeLists(int classes) {
+        return (Queue<ByteBuffer>[]) new Queue<?>[classes];
+    }
+
+    static BufferPool fromProperties(boolean direct) {
+        Properties properties = ConnectionProperties.getProperties();
+        int maxBufferSize = Integer.parseInt(properties.getProperty("buffer_pool_max_buffer_size"));
+        int maxPerClass = Integer.parseInt(properties.getProperty("buffer_pool_max_per_class"));
+        boolean leakDetection = Boolean.parseBoolean(properties.getProperty("buffer_pool_leak_detection"));
+        return new BufferPool(direct, maxBufferSize, maxPerClass, leakDetection);
+    }
+
+    public PooledBuffer acquire(int size) {
+        acquired.increment();
+        int sizeClass = sizeClass(size);
+        ByteBuffer memory;
+        if (sizeClass >= freeLists.length) {
+            unpooled.increment();
+            memory = allocate(size);
+        } else {
+            memory = freeLists[sizeClass].poll();
+            if (memory == null) {
+                allocated.increment();
+                memory = allocate(classSize(sizeClass));
+            } else {
+                pooled[sizeClass].decrementAndGet();
+            }
+        }
+        memory.clear().limit(size);
+        if (leaks != null) {
+            leaks.put(memory, new Throwable("Buffer of " + size + " bytes acquired here"));
+        }
+        return new PooledBuffer(this, memory);
+    }
+
+    void recycle(PooledBuffer buffer) {
+        released.increment();
+        ByteBuffer memory = buffer.memory();
+        if (leaks != null) {
+            leaks.remove(memory);
+        }
+        int sizeClass = sizeClass(memory.capacity());
+        if (sizeClass >= freeLists.length || memory.capacity() != classSize(sizeClass)) {
+            return;
+        }
+        if (pooled[sizeClass].incrementAndGet() <= maxPerClass) {
+            freeLists[sizeClass].add(memory);
+        } else {
+            pooled[sizeClass].decrementAndGet();
+        }
+    }
+
+    public List<Throwable> getLeaks() {
+        if (leaks == null) {
+            return new ArrayList<>();
+        }
+        synchronized (leaks) {
+            return new ArrayList<>(leaks.values());
+        }
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getReleased() {
+        return released.sum();
+    }
+
+    public long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    public long getUnpooled() {
+        return unpooled.sum();
+    }
+
+    public long getPooled() {
+        long total = 0;
+        for (AtomicInteger count : pooled) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+                "direct=" + direct +
+                ", acquired=" + getAcquired() +
+                ", released=" + getReleased() +
+                ", outstanding=" + getOutstanding() +
+                ", allocated=" + getAllocated() +
+                ", unpooled=" + getUnpooled() +
+                ", pooled=" + getPooled() +
+                '}';
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+}
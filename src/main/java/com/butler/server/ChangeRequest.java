@@ -1,30 +1,30 @@
 package com.butler.server;
 
-import java.nio.channels.SocketChannel;
+class ChangeRequest {
+    static final int REGISTER = 1;
+    static final int CHANGER = 2;
+    static final int CLOSE = 3;
+    static final int RESUME = 4;
 
-public class ChangeRequest {
-    public static final int REGISTER = 1;
-    public static final int CHANGER = 2;
-
-    private SocketChannel socket;
+    private Connection connection;
     private int type;
     private int ops;
 
-    public ChangeRequest(SocketChannel socket, int type, int ops) {
-        this.socket = socket;
+    ChangeRequest(Connection connection, int type, int ops) {
+        this.connection = connection;
         this.type = type;
         this.ops = ops;
     }
 
-    public SocketChannel getSocket() {
-        return socket;
+    Connection getConnection() {
+        return connection;
     }
 
-    public int getType() {
+    int getType() {
         return type;
     }
 
-    public int getOps() {
+    int getOps() {
         return ops;
     }
 }
@@ -0,0 +1,162 @@
+package com.butler.server;
+
+import com.butler.util.json.WireFormat;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class Connection {
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final OutboundBuffer outbound;
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicBoolean readsPaused = new AtomicBoolean();
+    private final AtomicReference<WireFormat> wireFormat = new AtomicReference<>(WireFormat.JSON);
+    private volatile int userId;
+    private volatile long journalOffset = Long.MAX_VALUE;
+    private volatile long directOffset;
+    private volatile boolean commandSeen;
+
+    private SelectionKey key;
+    private PooledBuffer inbound;
+    private TimeoutManager.Handle timeout;
+    private Executor executor;
+
+    Connection(SocketChannel channel, Reactor reactor, OutboundBuffer outbound) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.outbound = outbound;
+    }
+
+    public Set<String> getTopics() {
+        return topics;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat.get();
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    Reactor getReactor() {
+        return reactor;
+    }
+
+    OutboundBuffer getOutbound() {
+        return outbound;
+    }
+
+    boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+
+    int frameQueued() {
+        return queuedFrames.incrementAndGet();
+    }
+
+    // Called by the reactor. Returns false if the workers drained the queue below resumeAt in the meantime, in
+    // which case nobody would be left to resume reads. Reads stay enabled then.
+    boolean pauseReads(int resumeAt) {
+        if (!readsPaused.compareAndSet(false, true)) {
+            return false;
+        }
+        return queuedFrames.get() > resumeAt || !readsPaused.compareAndSet(true, false);
+    }
+
+    // Called by a worker. Returns true if this call unpaused reads and the reactor has to re-enable them.
+    boolean frameHandled(int resumeAt) {
+        return queuedFrames.decrementAndGet() <= resumeAt && readsPaused.get()
+                && readsPaused.compareAndSet(true, false);
+    }
+
+    boolean isReadsPaused() {
+        return readsPaused.get();
+    }
+
+    WireFormat swapWireFormat(WireFormat format) {
+        return wireFormat.getAndSet(format);
+    }
+
+    void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public long getJournalOffset() {
+        return journalOffset;
+    }
+
+    void setJournalOffset(long journalOffset) {
+        this.journalOffset = journalOffset;
+    }
+
+    boolean isNegotiable() {
+        return !commandSeen;
+    }
+
+    void commandSeen() {
+        commandSeen = true;
+    }
+
+    public long getDirectOffset() {
+        return directOffset;
+    }
+
+    void setDirectOffset(long directOffset) {
+        this.directOffset = directOffset;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    PooledBuffer getInbound() {
+        return inbound;
+    }
+
+    void setInbound(PooledBuffer inbound) {
+        this.inbound = inbound;
+    }
+
+    TimeoutManager.Handle getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(TimeoutManager.Handle timeout) {
+        this.timeout = timeout;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(channel);
+    }
+}
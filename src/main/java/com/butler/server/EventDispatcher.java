@@ -0,0 +1,23 @@
+package com.butler.server;
+
+import com.butler.command.UserCache;
+import com.butler.socket.ConnectionProperties;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.SenderSocketHandler;
+
+
+interface EventDispatcher {
+    String WORKERS = "workers";
+    String VIRTUAL = "virtual";
+
+    void processData(NioServer server, Connection connection, PooledBuffer data);
+
+    boolean isSaturated(Connection connection);
+
+    static EventDispatcher fromProperties(DatabaseClient database, SenderSocketHandler sender, UserCache cache) {
+        if (VIRTUAL.equals(ConnectionProperties.getProperties().getProperty("dispatcher"))) {
+            return new VirtualThreadDispatcher(database, sender, cache);
+        }
+        return new WorkerPool(database, sender, cache);
+    }
+}
@@ -0,0 +1,32 @@
+package com.butler.server;
+
+import com.butler.socket.ConnectionProperties;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+public interface FrameCodec {
+    String NEWLINE = "newline";
+    String LENGTH_PREFIXED = "length";
+
+    int encodedLength(int payloadLength);
+
+    void encode(byte[] payload, ByteBuffer out);
+
+    void decode(ByteBuffer in, Consumer<ByteBuffer> frames) throws FrameTooLongException;
+
+    int getMaxBufferLength();
+
+    boolean isBinarySafe();
+
+    static FrameCodec fromProperties() {
+        Properties properties = ConnectionProperties.getProperties();
+        int maxFrameLength = Integer.parseInt(properties.getProperty("max_frame_length"));
+        String framing = properties.getProperty("framing");
+        if (LENGTH_PREFIXED.equals(framing)) {
+            return new LengthPrefixedFrameCodec(maxFrameLength);
+        }
+        return new NewlineFrameCodec(maxFrameLength);
+    }
+}
@@ -0,0 +1,11 @@
+package com.butler.server;
+
+import java.io.IOException;
+
+public class FrameTooLongException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    FrameTooLongException(int length, int maxFrameLength) {
+        super("Frame of " + length + " bytes exceeds limit of " + maxFrameLength);
+    }
+}
@@ -0,0 +1,55 @@
+package com.butler.server;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+class LengthPrefixedFrameCodec implements FrameCodec {
+    private static final int HEADER_LENGTH = Integer.BYTES;
+
+    private final int maxFrameLength;
+
+    LengthPrefixedFrameCodec(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public int encodedLength(int payloadLength) {
+        return HEADER_LENGTH + payloadLength;
+    }
+
+    @Override
+    public void encode(byte[] payload, ByteBuffer out) {
+        out.putInt(payload.length).put(payload);
+    }
+
+    @Override
+    public void decode(ByteBuffer in, Consumer<ByteBuffer> frames) throws FrameTooLongException {
+        while (in.remaining() >= HEADER_LENGTH) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > maxFrameLength) {
+                throw new FrameTooLongException(length, maxFrameLength);
+            }
+            if (in.remaining() < HEADER_LENGTH + length) {
+                return;
+            }
+            int start = in.position() + HEADER_LENGTH;
+            int limit = in.limit();
+            if (length > 0) {
+                in.limit(start + length).position(start);
+                frames.accept(in);
+                in.limit(limit);
+            }
+            in.position(start + length);
+        }
+    }
+
+    @Override
+    public int getMaxBufferLength() {
+        return maxFrameLength + HEADER_LENGTH;
+    }
+
+    @Override
+    public boolean isBinarySafe() {
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.butler.server;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+class NewlineFrameCodec implements FrameCodec {
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final int maxFrameLength;
+
+    NewlineFrameCodec(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public int encodedLength(int payloadLength) {
+        return payloadLength + 1;
+    }
+
+    @Override
+    public void encode(byte[] payload, ByteBuffer out) {
+        out.put(payload).put(LF);
+    }
+
+    @Override
+    public void decode(ByteBuffer in, Consumer<ByteBuffer> frames) throws FrameTooLongException {
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start; i < limit; ++i) {
+            if (in.get(i) != LF) {
+                continue;
+            }
+            int end = i > start && in.get(i - 1) == CR ? i - 1 : i;
+            if (end > start) {
+                in.limit(end).position(start);
+                frames.accept(in);
+                in.limit(limit);
+            }
+            start = i + 1;
+        }
+        in.position(start);
+        if (in.remaining() > maxFrameLength) {
+            throw new FrameTooLongException(in.remaining(), maxFrameLength);
+        }
+    }
+
+    @Override
+    public int getMaxBufferLength() {
+        return maxFrameLength + 2;
+    }
+
+    @Override
+    public boolean isBinarySafe() {
+        return false;
+    }
+}
@@ -1,167 +1,388 @@
 package com.butler.server;
 
+import com.butler.command.UserCache;
+import com.butler.journal.ChatJournal;
+import com.butler.journal.DirectJournal;
+import com.butler.journal.FileRegion;
+import com.butler.metrics.Counter;
+import com.butler.metrics.Metrics;
+import com.butler.metrics.MetricsDynamicMBean;
+import com.butler.metrics.StatsServer;
 import com.butler.socket.ConnectionProperties;
+import com.butler.socket.DatabaseClient;
 import com.butler.socket.ReceiverSocketHandler;
+import com.butler.socket.SenderSocketHandler;
+import com.butler.util.json.WireFormat;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NioServer implements Runnable {
+    private static final String LEAST_LOADED = "least_loaded";
+    private static final Counter ACCEPTS = Metrics.counter("server.accepts");
+    private static final byte[] HISTORY_BEGIN = "{\"command\":\"history\",\"state\":\"begin\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HISTORY_END = "{\"command\":\"history\",\"state\":\"end\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
     private InetAddress hostAddress;
     private int port;
     private Selector selector;
-    private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
-    private Worker worker;
-
-    private final List<ChangeRequest> pendingChanges = new LinkedList<>();
+    private ServerSocketChannel serverChannel;
 
-    private final Map<SocketChannel, List<ByteBuffer>> pendingData = new HashMap<>();
+    private final FrameCodec codec;
+    private final BufferPool directPool;
+    private final BufferPool heapPool;
+    private final EventDispatcher dispatcher;
+    private final Reactor[] reactors;
+    private final boolean leastLoaded;
+    private int nextReactor;
+    private final AtomicInteger binaryClients = new AtomicInteger();
+    private final boolean smileEnabled;
 
-    private ReceiverSocketHandler receiver;
+    private final ChatJournal journal;
+    private final DirectJournal directJournal;
+    private final ReceiverSocketHandler receiver;
     private final Thread receiverThread;
 
-    private TimeoutManager timeoutManager;
-    private final Thread timeoutManagerThread;
-
-    private NioServer(InetAddress hostAddress, int port, Worker worker) throws IOException {
+    private NioServer(InetAddress hostAddress, int port, EventDispatcher dispatcher) throws IOException {
         this.hostAddress = hostAddress;
         this.port = port;
+        this.dispatcher = dispatcher;
         selector = initSelector();
-        this.worker = worker;
+        journal = ChatJournal.fromProperties();
+        directJournal = DirectJournal.fromProperties();
+
+        Properties properties = ConnectionProperties.getProperties();
+        int reactorCount = Integer.parseInt(properties.getProperty("reactor_count"));
+        if (reactorCount <= 0) {
+            reactorCount = Runtime.getRuntime().availableProcessors();
+        }
+        leastLoaded = LEAST_LOADED.equals(properties.getProperty("reactor_balancing"));
+        smileEnabled = Boolean.parseBoolean(properties.getProperty("smile_enabled"));
+        codec = FrameCodec.fromProperties();
+        directPool = BufferPool.fromProperties(true);
+        heapPool = BufferPool.fromProperties(false);
+        reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; ++i) {
+            reactors[i] = new Reactor(this, dispatcher, codec, directPool, heapPool);
+        }
         receiver = new ReceiverSocketHandler(this);
         receiverThread = new Thread(receiver);
+        registerGauges();
+    }
+
+    // The threads only start once the constructor is done, so none of them sees a field it has not set yet.
+    private void startThreads() {
         receiverThread.start();
-        timeoutManager = new TimeoutManager(receiver);
-        timeoutManagerThread = new Thread(timeoutManager);
-        timeoutManagerThread.start();
+        for (int i = 0; i < reactors.length; ++i) {
+            new Thread(reactors[i], "reactor-" + i).start();
+        }
+        new Thread(this, "acceptor").start();
+    }
+
+    private void registerGauges() {
+        Metrics.gauge("server.connections", this::getConnectionCount);
+        Metrics.gauge("server.write.calls", this::getWriteCalls);
+        Metrics.gauge("server.write.messages", this::getMessagesWritten);
+        Metrics.gauge("server.dropped.bytes", this::getDroppedBytes);
+        Metrics.gauge("server.dropped.messages", this::getDroppedMessages);
+        Metrics.gauge("server.slow_consumer.disconnects", this::getSlowConsumerDisconnects);
+        Metrics.gauge("pool.direct.outstanding", directPool::getOutstanding);
+        Metrics.gauge("pool.direct.allocated", directPool::getAllocated);
+        Metrics.gauge("pool.heap.outstanding", heapPool::getOutstanding);
+        Metrics.gauge("pool.heap.allocated", heapPool::getAllocated);
+        if (journal != null) {
+            Metrics.gauge("journal.end.offset", journal::getEndOffset);
+        }
+        if (directJournal != null) {
+            Metrics.gauge("journal.direct.end.offset", directJournal::getEndOffset);
+        }
+    }
+
+    public void send(Connection connection, byte[] data) {
+        if (!connection.isClosed()) {
+            connection.getReactor().reply(connection, encode(data));
+        }
+    }
+
+    public void send(Connection connection, WireFormat format, byte[] json) {
+        send(connection, format.fromJson(json));
+    }
+
+    public void send(Connection connection, PooledBuffer sharedFrame) {
+        if (!connection.isClosed()) {
+            connection.getReactor().send(connection, sharedFrame.retainedDuplicate());
+        }
+    }
+
+    public PooledBuffer encode(byte[] data) {
+        PooledBuffer frame = directPool.acquire(codec.encodedLength(data.length));
+        codec.encode(data, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+
+    public boolean isJournaled(String topic) {
+        if (ReceiverSocketHandler.isUserTopic(topic)) {
+            return journalsDirectMessages();
+        }
+        return journal != null && ReceiverSocketHandler.DEFAULT_TOPIC.equals(topic);
     }
 
-    public void send(SocketChannel channel, byte[] data) {
-        synchronized (pendingChanges) {
-            pendingChanges.add(new ChangeRequest(channel, ChangeRequest.CHANGER, SelectionKey.OP_WRITE));
-            queueWrite(channel, data);
+    public boolean journalsDirectMessages() {
+        return directJournal != null;
+    }
+
+    public long journal(String topic, PooledBuffer frame) {
+        try {
+            if (ReceiverSocketHandler.isUserTopic(topic)) {
+                int userId = ReceiverSocketHandler.userIdOf(topic);
+                return userId != 0 ? directJournal.append(userId, frame.buffer()) : -1;
+            }
+            return journal.append(frame.buffer());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    public boolean hasBinaryClients() {
+        return binaryClients.get() > 0;
+    }
+
+    boolean setWireFormat(Connection connection, WireFormat format) {
+        if (format != WireFormat.JSON && (!smileEnabled || !codec.isBinarySafe() || connection.isClosed())) {
+            return false;
+        }
+        updateBinaryClients(connection.swapWireFormat(format), format);
+        if (connection.isClosed()) {
+            updateBinaryClients(connection.swapWireFormat(WireFormat.JSON), WireFormat.JSON);
+        }
+        return true;
+    }
+
+    private void updateBinaryClients(WireFormat previous, WireFormat current) {
+        if (previous == WireFormat.JSON && current != WireFormat.JSON) {
+            binaryClients.incrementAndGet();
+        } else if (previous != WireFormat.JSON && current == WireFormat.JSON) {
+            binaryClients.decrementAndGet();
         }
-        selector.wakeup();
     }
 
-    private void queueWrite(SocketChannel socket, byte[] data) {
-        synchronized (pendingData) {
-            List<ByteBuffer> queue = pendingData.get(socket);
-            if (queue == null) {
-                queue = new ArrayList<>();
-                pendingData.put(socket, queue);
+    boolean join(Connection connection, String topic) {
+        return receiver.join(connection, topic);
+    }
+
+    boolean leave(Connection connection, String topic) {
+        return receiver.leave(connection, topic);
+    }
+
+    void bindUser(Connection connection, int userId) {
+        if (!connection.isClosed() && connection.getUserId() != userId) {
+            connection.setUserId(userId);
+            connection.setDirectOffset(0);
+            receiver.bindUser(connection, userId);
+            replay(connection, userId);
+        }
+    }
+
+    // Live lobby frames reach a connection from the moment it joined, so by the time its user logs in newer
+    // messages may already have been sent. Missed history is therefore framed by history begin/end pushes.
+    // Direct messages go live as soon as the user topic is joined, so only those journaled before are replayed,
+    // and the ones in between may arrive twice.
+    private void replay(Connection connection, int userId) {
+        if (connection.getWireFormat() != WireFormat.JSON) {
+            return;
+        }
+        List<FileRegion> regions = new ArrayList<>();
+        long liveOffset = connection.getJournalOffset();
+        if (journal != null && liveOffset != Long.MAX_VALUE) {
+            long cursor = journal.getCursor(userId);
+            if (cursor >= 0 && cursor < liveOffset) {
+                regions.addAll(journal.read(cursor, liveOffset));
             }
-            queue.add(ByteBuffer.wrap(data));
+        }
+        if (directJournal != null) {
+            long directOffset = directJournal.getEndOffset();
+            connection.setDirectOffset(directOffset);
+            // messages sent to a user before its first login are all kept for it
+            regions.addAll(directJournal.read(userId, Math.max(0, directJournal.getCursor(userId)), directOffset));
+        }
+        if (!regions.isEmpty()) {
+            List<FileRegion> replay = new ArrayList<>(regions.size() + 2);
+            replay.add(FileRegion.wrap(encodeHeap(HISTORY_BEGIN)));
+            replay.addAll(regions);
+            replay.add(FileRegion.wrap(encodeHeap(HISTORY_END)));
+            connection.getReactor().replay(connection, replay);
+        }
+    }
+
+    private ByteBuffer encodeHeap(byte[] data) {
+        ByteBuffer frame = ByteBuffer.allocate(codec.encodedLength(data.length));
+        codec.encode(data, frame);
+        frame.flip();
+        return frame;
+    }
+
+    boolean isBoundTo(Connection connection, String userTopic) {
+        return connection.getTopics().contains(userTopic);
+    }
+
+    public BufferPool getDirectPool() {
+        return directPool;
+    }
+
+    public BufferPool getHeapPool() {
+        return heapPool;
+    }
+
+    public long getWriteCalls() {
+        long writeCalls = 0;
+        for (Reactor reactor : reactors) {
+            writeCalls += reactor.getWriteStats().getWriteCalls();
+        }
+        return writeCalls;
+    }
+
+    public long getMessagesWritten() {
+        long messagesWritten = 0;
+        for (Reactor reactor : reactors) {
+            messagesWritten += reactor.getWriteStats().getMessagesWritten();
+        }
+        return messagesWritten;
+    }
+
+    public long getDroppedBytes() {
+        long droppedBytes = 0;
+        for (Reactor reactor : reactors) {
+            droppedBytes += reactor.getWriteStats().getDroppedBytes();
+        }
+        return droppedBytes;
+    }
+
+    public long getDroppedMessages() {
+        long droppedMessages = 0;
+        for (Reactor reactor : reactors) {
+            droppedMessages += reactor.getWriteStats().getDroppedMessages();
+        }
+        return droppedMessages;
+    }
+
+    public long getSlowConsumerDisconnects() {
+        long disconnects = 0;
+        for (Reactor reactor : reactors) {
+            disconnects += reactor.getWriteStats().getSlowConsumerDisconnects();
+        }
+        return disconnects;
+    }
+
+    public int getConnectionCount() {
+        int count = 0;
+        for (Reactor reactor : reactors) {
+            count += reactor.getConnectionCount();
+        }
+        return count;
+    }
+
+    void removeConnection(Connection connection) {
+        updateBinaryClients(connection.swapWireFormat(WireFormat.JSON), WireFormat.JSON);
+        receiver.removeClient(connection);
+        if (journal != null && connection.getUserId() != 0) {
+            journal.updateCursor(connection.getUserId(), journal.getEndOffset());
+        }
+        if (directJournal != null && connection.getUserId() != 0) {
+            directJournal.updateCursor(connection.getUserId(), directJournal.getEndOffset());
+        }
+    }
+
+    /**
+     * Closes the journals so their cursors are saved and their segments unmapped; frames that arrive afterwards are
+     * still delivered but no longer journaled.
+     */
+    public void closeJournals() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (directJournal != null) {
+            directJournal.close();
         }
     }
 
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                synchronized (pendingChanges) {
-                    for (ChangeRequest change : pendingChanges) {
-                        switch (change.getType()) {
-                            case ChangeRequest.CHANGER:
-                                SelectionKey key = change.getSocket().keyFor(selector);
-                                if (key != null && key.isValid()) {
-                                    key.interestOps(change.getOps());
-                                }
-                        }
-                    }
-                    pendingChanges.clear();
-                }
                 selector.select();
-                Iterator selectedKeys = selector.selectedKeys().iterator();
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
                 while (selectedKeys.hasNext()) {
-                    SelectionKey key = (SelectionKey) selectedKeys.next();
+                    SelectionKey key = selectedKeys.next();
                     selectedKeys.remove();
 
-                    if (!key.isValid()) {
-                        continue;
-                    }
-                    if (key.isAcceptable()) {
+                    if (key.isValid() && key.isAcceptable()) {
                         accept(key);
-                    } else if (key.isReadable()) {
-                        read(key);
-                    } else if (key.isWritable()) {
-                        write(key);
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 receiverThread.interrupt();
-                timeoutManagerThread.interrupt();
             }
         }
     }
 
     private void accept(SelectionKey key) throws IOException {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
-        SocketChannel socketChannel = serverSocketChannel.accept();
-        socketChannel.configureBlocking(false);
-        receiver.addClient(socketChannel);
-        socketChannel.register(selector, SelectionKey.OP_READ);
-    }
-
-    private void read(SelectionKey key) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        readBuffer.clear();
-        int numRead;
-        try {
-            numRead = socketChannel.read(readBuffer);
-        } catch (IOException e) {
-            key.cancel();
-            receiver.removeClient((SocketChannel) key.channel());
-            socketChannel.close();
-            return;
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            ACCEPTS.increment();
+            adopt(socketChannel);
         }
+    }
 
-        if (numRead == -1) {
-            receiver.removeClient((SocketChannel) key.channel());
-            key.channel().close();
-            key.cancel();
-            return;
+    Connection adopt(SocketChannel socketChannel) throws IOException {
+        socketChannel.configureBlocking(false);
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = nextReactor().newConnection(socketChannel);
+        receiver.addClient(connection);
+        if (journal != null) {
+            connection.setJournalOffset(journal.getEndOffset());
         }
-        worker.processData(this, socketChannel, readBuffer.array(), numRead);
-        timeoutManager.addHandle(socketChannel);
+        connection.getReactor().register(connection);
+        return connection;
     }
 
-    private void write(SelectionKey key) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
 
-        synchronized (pendingData) {
-            List<ByteBuffer> queue = pendingData.get(socketChannel);
-            while (!queue.isEmpty()) {
-                ByteBuffer buf = queue.get(0);
-                try {
-                    socketChannel.write(buf);
-                } catch (IOException e) {
-                    key.channel().close();
-                    key.channel();
-                }
-                if (buf.remaining() > 0) {
-                    break;
+    private Reactor nextReactor() {
+        if (leastLoaded) {
+            Reactor least = reactors[0];
+            for (int i = 1; i < reactors.length; ++i) {
+                if (reactors[i].getConnectionCount() < least.getConnectionCount()) {
+                    least = reactors[i];
                 }
-                queue.remove(0);
-            }
-
-            if (queue.isEmpty()) {
-                key.interestOps(SelectionKey.OP_READ);
             }
+            return least;
         }
+        Reactor reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        return reactor;
     }
 
     private Selector initSelector() throws IOException {
         Selector socketSelector = SelectorProvider.provider().openSelector();
-        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel = ServerSocketChannel.open();
         serverChannel.configureBlocking(false);
         InetSocketAddress isa = new InetSocketAddress(hostAddress, port);
         serverChannel.socket().bind(isa);
@@ -170,17 +391,37 @@ public class NioServer implements Runnable {
         return socketSelector;
     }
 
+    public static NioServer start() throws IOException {
+        DatabaseClient database = new DatabaseClient();
+        new Thread(database, "database-client").start();
+        SenderSocketHandler sender = new SenderSocketHandler();
+        new Thread(sender, "chat-sender").start();
+        UserCache cache = new UserCache();
+        Metrics.gauge("cache.hits", cache::getHits);
+        Metrics.gauge("cache.misses", cache::getMisses);
+        Metrics.gauge("cache.evictions", cache::getEvictions);
+        Metrics.gauge("cache.size", cache::size);
+        EventDispatcher dispatcher = EventDispatcher.fromProperties(database, sender, cache);
+        Properties properties = ConnectionProperties.getProperties();
+        int port = Integer.parseInt(properties.getProperty("butler_port"));
+        String host = properties.getProperty("butler_address");
+        InetAddress address = InetAddress.getByName(host);
+        NioServer server = new NioServer(address, port, dispatcher);
+        server.startThreads();
+        return server;
+    }
+
     public static void main(String[] args) {
         try {
-            Worker worker = new Worker();
-            new Thread(worker).start();
+            NioServer server = start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::closeJournals, "journal-close"));
+            MetricsDynamicMBean.register();
             Properties properties = ConnectionProperties.getProperties();
-            int port = Integer.parseInt(properties.getProperty("butler_port"));
-            String host = properties.getProperty("butler_address");
-            InetAddress address = InetAddress.getByName(host);
-            new Thread(new NioServer(address, port, worker)).start();
+            Thread stats = new Thread(new StatsServer(Integer.parseInt(properties.getProperty("stats_port"))), "stats");
+            stats.setDaemon(true);
+            stats.start();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,418 @@
+package com.butler.server;
+
+import com.butler.journal.FileRegion;
+import com.butler.metrics.Counter;
+import com.butler.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class OutboundBuffer {
+    static final int WRITE_SKIPPED = 0;
+    static final int WRITE_COMPLETE = 1;
+    static final int WRITE_PARTIAL = 2;
+
+    private static final int COALESCE_BUFFER_SIZE = 8192;
+    private static final Counter WRITE_BYTES = Metrics.counter("server.write.bytes");
+    private static final Counter INLINE_WRITES = Metrics.counter("server.write.inline");
+    private static final Counter INLINE_PARTIAL = Metrics.counter("server.write.inline.partial");
+
+    private final Queue<PooledBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<PooledBuffer> replies = new ConcurrentLinkedQueue<>();
+    private final Queue<FileRegion> regions = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong dropBytes = new AtomicLong();
+    private final AtomicInteger dropMessages = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicBoolean disconnecting = new AtomicBoolean();
+    private volatile PooledBuffer remainder;
+    private PooledBuffer carry;
+
+    private final PooledBuffer[] ring;
+    private final boolean[] coalesced;
+    private final int[] messages;
+    private final int[] bytes;
+    private final ByteBuffer[] gather;
+    private final int coalesceThreshold;
+    private final OutboundLimits limits;
+    private final BufferPool pool;
+    private final WriteStats stats;
+    private int head;
+    private int size;
+
+    OutboundBuffer(int gatherLimit, int coalesceThreshold, OutboundLimits limits, BufferPool pool, WriteStats stats) {
+        ring = new PooledBuffer[gatherLimit];
+        coalesced = new boolean[gatherLimit];
+        messages = new int[gatherLimit];
+        bytes = new int[gatherLimit];
+        gather = new ByteBuffer[gatherLimit];
+        this.coalesceThreshold = Math.min(coalesceThreshold, COALESCE_BUFFER_SIZE);
+        this.limits = limits;
+        this.pool = pool;
+        this.stats = stats;
+    }
+
+    // Producers reserve their bytes before comparing against the water marks, so concurrent offers never push the
+    // queue past a limit; at worst they see each other's reservations and drop or disconnect slightly early.
+    // DROP_OLDEST only marks how much to drop: the oldest broadcasts are released by the thread that owns the
+    // writing flag, so fill() stays the single consumer of the queues.
+    boolean offer(PooledBuffer buffer) {
+        int size = buffer.buffer().remaining();
+        if (!reserve(size, false)) {
+            switch (limits.getPolicy()) {
+                case DISCONNECT:
+                    drop(buffer);
+                    return requestDisconnect();
+                case DROP_NEW:
+                    drop(buffer);
+                    return true;
+                case DROP_OLDEST:
+                    dropOldest();
+                    if (!reserve(size, false)) {
+                        drop(buffer);
+                        trimIfIdle();
+                        return true;
+                    }
+            }
+        }
+        pending.add(buffer);
+        if (closed) {
+            releasePending();
+        }
+        trimIfIdle();
+        return true;
+    }
+
+    // Replies are matched to requests by position, so they are never dropped: they only count against the hard
+    // limit, and a client that lets that many bytes pile up is disconnected.
+    boolean offerReply(PooledBuffer buffer) {
+        int size = buffer.buffer().remaining();
+        if (!reserve(size, true)) {
+            if (limits.getPolicy() == SlowConsumerPolicy.DROP_OLDEST) {
+                dropOldest();
+            }
+            if (!reserve(size, true)) {
+                drop(buffer);
+                return requestDisconnect();
+            }
+        }
+        replies.add(buffer);
+        if (closed) {
+            releasePending();
+        }
+        trimIfIdle();
+        return true;
+    }
+
+    void offerRegions(Iterable<FileRegion> replay) {
+        for (FileRegion region : replay) {
+            regions.add(region);
+        }
+        if (closed) {
+            releaseRegions();
+        }
+    }
+
+    long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    private boolean reserve(int size, boolean reply) {
+        long bytes = pendingBytes.addAndGet(size) - dropBytes.get();
+        int count = pendingMessages.incrementAndGet() - dropMessages.get();
+        if (reply ? limits.aboveHardLimit(bytes, count) : limits.aboveHighWater(bytes, count)) {
+            pendingBytes.addAndGet(-size);
+            pendingMessages.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean requestDisconnect() {
+        if (!disconnecting.compareAndSet(false, true)) {
+            // the close is already requested, later frames are only dropped
+            return true;
+        }
+        stats.recordDisconnect();
+        return false;
+    }
+
+    private void dropOldest() {
+        dropBytes.accumulateAndGet(limits.bytesAboveLowWater(pendingBytes.get()), Math::max);
+        dropMessages.accumulateAndGet(limits.messagesAboveLowWater(pendingMessages.get()), Math::max);
+    }
+
+    private boolean hasDropBudget() {
+        return dropBytes.get() > 0 || dropMessages.get() > 0;
+    }
+
+    // Called by producers after marking a drop budget. If a flush holds the writing flag, it checks the budget
+    // again after letting go of the flag.
+    private void trimIfIdle() {
+        while (hasDropBudget() && writing.compareAndSet(false, true)) {
+            try {
+                trimOwned();
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    // Only called while owning the writing flag. The budget is lowered before the accounting, so concurrent
+    // producers see a fuller queue rather than an emptier one.
+    private void trimOwned() {
+        while (hasDropBudget()) {
+            PooledBuffer oldest = pending.poll();
+            if (oldest == null) {
+                // whatever is left is replies, which are never dropped
+                dropBytes.set(0);
+                dropMessages.set(0);
+                return;
+            }
+            int size = oldest.buffer().remaining();
+            dropBytes.accumulateAndGet(size, (budget, dropped) -> Math.max(0, budget - dropped));
+            dropMessages.accumulateAndGet(1, (budget, dropped) -> Math.max(0, budget - dropped));
+            pendingBytes.addAndGet(-size);
+            pendingMessages.decrementAndGet();
+            drop(oldest);
+        }
+    }
+
+    private void drop(PooledBuffer buffer) {
+        int size = buffer.buffer().remaining();
+        droppedBytes.addAndGet(size);
+        stats.recordDrop(size);
+        buffer.release();
+    }
+
+    boolean isEmpty() {
+        return remainder == null && size == 0 && carry == null && replies.isEmpty() && pending.isEmpty() && regions.isEmpty();
+    }
+
+    int tryWrite(GatheringByteChannel channel, PooledBuffer frame) throws IOException {
+        if (!writing.compareAndSet(false, true)) {
+            return WRITE_SKIPPED;
+        }
+        try {
+            if (!isEmpty()) {
+                return WRITE_SKIPPED;
+            }
+            try {
+                WRITE_BYTES.add(channel.write(frame.buffer()));
+            } catch (IOException e) {
+                frame.release();
+                throw e;
+            }
+            stats.recordWriteCall();
+            INLINE_WRITES.increment();
+            if (frame.buffer().hasRemaining()) {
+                INLINE_PARTIAL.increment();
+                remainder = frame;
+                return WRITE_PARTIAL;
+            }
+            stats.recordMessages(1);
+            frame.release();
+            return WRITE_COMPLETE;
+        } finally {
+            writing.set(false);
+            trimIfIdle();
+        }
+    }
+
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        if (!writing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            return flushOwned(channel);
+        } finally {
+            writing.set(false);
+            trimIfIdle();
+        }
+    }
+
+    private boolean flushOwned(GatheringByteChannel channel) throws IOException {
+        if (remainder != null) {
+            WRITE_BYTES.add(channel.write(remainder.buffer()));
+            stats.recordWriteCall();
+            if (remainder.buffer().hasRemaining()) {
+                return false;
+            }
+            stats.recordMessages(1);
+            remainder.release();
+            remainder = null;
+        }
+        while (true) {
+            if (size == 0 && !transferRegions(channel)) {
+                return false;
+            }
+            fill();
+            if (size == 0) {
+                return true;
+            }
+            int count = size;
+            for (int i = 0; i < count; ++i) {
+                gather[i] = ring[(head + i) % ring.length].buffer();
+            }
+            try {
+                WRITE_BYTES.add(channel.write(gather, 0, count));
+            } finally {
+                Arrays.fill(gather, 0, count, null);
+            }
+            stats.recordWriteCall();
+            while (size > 0 && !ring[head].buffer().hasRemaining()) {
+                complete();
+            }
+            if (size > 0) {
+                return false;
+            }
+        }
+    }
+
+    void close() {
+        while (!writing.compareAndSet(false, true)) {
+            Thread.onSpinWait();
+        }
+        closed = true;
+        if (remainder != null) {
+            remainder.release();
+            remainder = null;
+        }
+        if (carry != null) {
+            pendingBytes.addAndGet(-carry.buffer().remaining());
+            pendingMessages.decrementAndGet();
+            carry.release();
+            carry = null;
+        }
+        while (size > 0) {
+            pendingBytes.addAndGet(-bytes[head]);
+            pendingMessages.addAndGet(-messages[head]);
+            ring[head].release();
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+        }
+        releasePending();
+        releaseRegions();
+    }
+
+    private boolean transferRegions(GatheringByteChannel channel) throws IOException {
+        FileRegion region;
+        while ((region = regions.peek()) != null) {
+            WRITE_BYTES.add(region.transferTo(channel));
+            stats.recordWriteCall();
+            if (!region.isDone()) {
+                return false;
+            }
+            regions.poll().release();
+        }
+        return true;
+    }
+
+    private void releaseRegions() {
+        FileRegion region;
+        while ((region = regions.poll()) != null) {
+            region.release();
+        }
+    }
+
+    private void releasePending() {
+        releaseAll(replies);
+        releaseAll(pending);
+    }
+
+    private void releaseAll(Queue<PooledBuffer> queue) {
+        PooledBuffer buffer;
+        while ((buffer = queue.poll()) != null) {
+            pendingBytes.addAndGet(-buffer.buffer().remaining());
+            pendingMessages.decrementAndGet();
+            buffer.release();
+        }
+    }
+
+    // Replies go out ahead of queued broadcasts, so a slow consumer sees its replies without first reading through
+    // the whole broadcast backlog. A buffer that fits neither the tail nor a free slot waits in carry for the next
+    // fill, ahead of anything still queued.
+    private void fill() {
+        trimOwned();
+        PooledBuffer buffer;
+        while ((buffer = poll()) != null) {
+            if (canCoalesce(buffer)) {
+                append(buffer);
+            } else if (size == ring.length) {
+                carry = buffer;
+                return;
+            } else if (coalesceThreshold > 0 && buffer.buffer().remaining() <= coalesceThreshold) {
+                PooledBuffer target = pool.acquire(COALESCE_BUFFER_SIZE);
+                target.buffer().limit(0);
+                push(target, true, 0);
+                append(buffer);
+            } else {
+                push(buffer, false, 1);
+            }
+        }
+    }
+
+    private PooledBuffer poll() {
+        PooledBuffer buffer = carry;
+        if (buffer != null) {
+            carry = null;
+            return buffer;
+        }
+        buffer = replies.poll();
+        return buffer != null ? buffer : pending.poll();
+    }
+
+    private boolean canCoalesce(PooledBuffer buffer) {
+        if (buffer == null || size == 0 || coalesceThreshold <= 0 || buffer.buffer().remaining() > coalesceThreshold) {
+            return false;
+        }
+        int tail = (head + size - 1) % ring.length;
+        ByteBuffer target = ring[tail].buffer();
+        return coalesced[tail] && target.capacity() - target.limit() >= buffer.buffer().remaining();
+    }
+
+    private void append(PooledBuffer buffer) {
+        int tail = (head + size - 1) % ring.length;
+        ByteBuffer target = ring[tail].buffer();
+        bytes[tail] += buffer.buffer().remaining();
+        int position = target.position();
+        target.position(target.limit()).limit(target.capacity());
+        target.put(buffer.buffer());
+        target.limit(target.position()).position(position);
+        messages[tail]++;
+        buffer.release();
+    }
+
+    private void push(PooledBuffer buffer, boolean owned, int count) {
+        if (size == ring.length) {
+            throw new IllegalStateException("Outbound ring is full");
+        }
+        int tail = (head + size) % ring.length;
+        ring[tail] = buffer;
+        coalesced[tail] = owned;
+        messages[tail] = count;
+        bytes[tail] = owned ? 0 : buffer.buffer().remaining();
+        size++;
+    }
+
+    private void complete() {
+        stats.recordMessages(messages[head]);
+        pendingBytes.addAndGet(-bytes[head]);
+        pendingMessages.addAndGet(-messages[head]);
+        ring[head].release();
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+    }
+}
@@ -0,0 +1,65 @@
+package com.butler.server;
+
+import com.butler.socket.ConnectionProperties;
+
+import java.util.Properties;
+
+class OutboundLimits {
+    private static final int HARD_LIMIT_FACTOR = 2;
+
+    private final long highWaterBytes;
+    private final long lowWaterBytes;
+    private final int highWaterMessages;
+    private final int lowWaterMessages;
+    private final long hardLimitBytes;
+    private final long hardLimitMessages;
+    private final SlowConsumerPolicy policy;
+
+    OutboundLimits(long highWaterBytes, long lowWaterBytes, int highWaterMessages, int lowWaterMessages,
+                   SlowConsumerPolicy policy) {
+        this.highWaterBytes = highWaterBytes;
+        this.lowWaterBytes = lowWaterBytes;
+        this.highWaterMessages = highWaterMessages;
+        this.lowWaterMessages = lowWaterMessages;
+        this.policy = policy;
+        hardLimitBytes = highWaterBytes > Long.MAX_VALUE / HARD_LIMIT_FACTOR
+                ? Long.MAX_VALUE : highWaterBytes * HARD_LIMIT_FACTOR;
+        hardLimitMessages = (long) highWaterMessages * HARD_LIMIT_FACTOR;
+    }
+
+    static OutboundLimits fromProperties() {
+        Properties properties = ConnectionProperties.getProperties();
+        return new OutboundLimits(
+                Long.parseLong(properties.getProperty("outbound_high_water_bytes")),
+                Long.parseLong(properties.getProperty("outbound_low_water_bytes")),
+                Integer.parseInt(properties.getProperty("outbound_high_water_messages")),
+                Integer.parseInt(properties.getProperty("outbound_low_water_messages")),
+                SlowConsumerPolicy.fromName(properties.getProperty("outbound_policy")));
+    }
+
+    boolean aboveHighWater(long bytes, int messages) {
+        return bytes > highWaterBytes || messages > highWaterMessages;
+    }
+
+    // Replies are never dropped, so they may fill the queue up to twice the high water marks before the client is
+    // disconnected instead.
+    boolean aboveHardLimit(long bytes, int messages) {
+        return bytes > hardLimitBytes || messages > hardLimitMessages;
+    }
+
+    boolean aboveLowWater(long bytes, int messages) {
+        return bytes > lowWaterBytes || messages > lowWaterMessages;
+    }
+
+    long bytesAboveLowWater(long bytes) {
+        return Math.max(0, bytes - lowWaterBytes);
+    }
+
+    int messagesAboveLowWater(int messages) {
+        return Math.max(0, messages - lowWaterMessages);
+    }
+
+    SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+}
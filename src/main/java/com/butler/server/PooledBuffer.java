@@ -0,0 +1,48 @@
+package com.butler.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer memory;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCnt;
+
+    PooledBuffer(BufferPool pool, ByteBuffer memory) {
+        this(pool, memory, memory, new AtomicInteger(1));
+    }
+
+    private PooledBuffer(BufferPool pool, ByteBuffer memory, ByteBuffer buffer, AtomicInteger refCnt) {
+        this.pool = pool;
+        this.memory = memory;
+        this.buffer = buffer;
+        this.refCnt = refCnt;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    ByteBuffer memory() {
+        return memory;
+    }
+
+    // Duplicates share their bytes with every other holder, such as the connections a broadcast fans out to, so they
+    // are read-only and only the position and limit are their own.
+    public PooledBuffer retainedDuplicate() {
+        if (refCnt.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Buffer already released");
+        }
+        return new PooledBuffer(pool, memory, buffer.asReadOnlyBuffer(), refCnt);
+    }
+
+    public void release() {
+        int remaining = refCnt.decrementAndGet();
+        if (remaining == 0) {
+            pool.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+    }
+}
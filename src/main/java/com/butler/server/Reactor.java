@@ -0,0 +1,345 @@
+package com.butler.server;
+
+import com.butler.journal.FileRegion;
+import com.butler.metrics.Counter;
+import com.butler.metrics.Metrics;
+import com.butler.socket.ConnectionProperties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class Reactor implements Runnable {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final Counter READ_BYTES = Metrics.counter("server.read.bytes");
+    private static final Counter FRAMES = Metrics.counter("server.read.frames");
+    private static final Counter TIMEOUT_EVICTIONS = Metrics.counter("server.timeout.evictions");
+    private static final Counter READ_PAUSES = Metrics.counter("server.read.pauses");
+
+    private final NioServer server;
+    private final EventDispatcher dispatcher;
+    private final TimeoutManager timeoutManager;
+    private final Selector selector;
+    private final FrameCodec codec;
+    private final BufferPool directPool;
+    private final BufferPool heapPool;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final Queue<ChangeRequest> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private final int gatherLimit;
+    private final int coalesceThreshold;
+    private final boolean inlineWrites;
+    private final OutboundLimits outboundLimits;
+    private final int maxQueuedFrames;
+    private final int resumeQueuedFrames;
+    private final WriteStats writeStats = new WriteStats();
+
+    Reactor(NioServer server, EventDispatcher dispatcher, FrameCodec codec,
+            BufferPool directPool, BufferPool heapPool) throws IOException {
+        this.server = server;
+        this.codec = codec;
+        this.directPool = directPool;
+        this.heapPool = heapPool;
+        this.dispatcher = dispatcher;
+        timeoutManager = new TimeoutManager();
+        selector = SelectorProvider.provider().openSelector();
+        Properties properties = ConnectionProperties.getProperties();
+        gatherLimit = Integer.parseInt(properties.getProperty("write_gather_limit"));
+        coalesceThreshold = Integer.parseInt(properties.getProperty("write_coalesce_threshold"));
+        inlineWrites = Boolean.parseBoolean(properties.getProperty("write_inline"));
+        outboundLimits = OutboundLimits.fromProperties();
+        maxQueuedFrames = Math.max(1, Integer.parseInt(properties.getProperty("connection_max_queued_frames")));
+        resumeQueuedFrames = maxQueuedFrames / 2;
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    Connection newConnection(SocketChannel channel) {
+        return new Connection(channel, this,
+                new OutboundBuffer(gatherLimit, coalesceThreshold, outboundLimits, directPool, writeStats));
+    }
+
+    void register(Connection connection) {
+        connections.incrementAndGet();
+        pendingChanges.add(new ChangeRequest(connection, ChangeRequest.REGISTER, SelectionKey.OP_READ));
+        wakeup();
+    }
+
+    void reply(Connection connection, PooledBuffer frame) {
+        if (inlineWrites && !connection.isClosed() && writeInline(connection, frame)) {
+            return;
+        }
+        if (connection.isClosed()) {
+            frame.release();
+            return;
+        }
+        enqueued(connection, connection.getOutbound().offerReply(frame));
+    }
+
+    void send(Connection connection, PooledBuffer frame) {
+        if (connection.isClosed()) {
+            frame.release();
+            return;
+        }
+        enqueued(connection, connection.getOutbound().offer(frame));
+    }
+
+    private void enqueued(Connection connection, boolean accepted) {
+        if (accepted) {
+            pendingChanges.add(new ChangeRequest(connection, ChangeRequest.CHANGER, SelectionKey.OP_WRITE));
+        } else {
+            pendingChanges.add(new ChangeRequest(connection, ChangeRequest.CLOSE, 0));
+        }
+        wakeup();
+    }
+
+    private boolean writeInline(Connection connection, PooledBuffer frame) {
+        int result;
+        try {
+            result = connection.getOutbound().tryWrite(connection.getChannel(), frame);
+        } catch (IOException e) {
+            pendingChanges.add(new ChangeRequest(connection, ChangeRequest.CLOSE, 0));
+            wakeup();
+            return true;
+        }
+        if (result == OutboundBuffer.WRITE_PARTIAL) {
+            pendingChanges.add(new ChangeRequest(connection, ChangeRequest.CHANGER, SelectionKey.OP_WRITE));
+            wakeup();
+        }
+        return result != OutboundBuffer.WRITE_SKIPPED;
+    }
+
+    void replay(Connection connection, List<FileRegion> regions) {
+        if (connection.isClosed()) {
+            regions.forEach(FileRegion::release);
+            return;
+        }
+        connection.getOutbound().offerRegions(regions);
+        pendingChanges.add(new ChangeRequest(connection, ChangeRequest.CHANGER, SelectionKey.OP_WRITE));
+        wakeup();
+    }
+
+    void frameHandled(Connection connection) {
+        if (connection.frameHandled(resumeQueuedFrames)) {
+            pendingChanges.add(new ChangeRequest(connection, ChangeRequest.RESUME, SelectionKey.OP_READ));
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                wakeupPending.set(false);
+                ChangeRequest change;
+                while ((change = pendingChanges.poll()) != null) {
+                    switch (change.getType()) {
+                        case ChangeRequest.REGISTER:
+                            registerChannel(change.getConnection(), change.getOps());
+                            break;
+                        case ChangeRequest.CHANGER:
+                            SelectionKey key = change.getConnection().getKey();
+                            if (key != null && key.isValid()) {
+                                key.interestOps(change.getOps());
+                            }
+                            break;
+                        case ChangeRequest.CLOSE:
+                            close(change.getConnection());
+                            break;
+                        case ChangeRequest.RESUME:
+                            resumeReads(change.getConnection());
+                    }
+                }
+                selector.select(timeoutManager.getTickMillis());
+                timeoutManager.expire(connection -> {
+                    if (connection.isReadsPaused()) {
+                        // the connection is waiting on the workers, not idle
+                        connection.setTimeout(timeoutManager.addHandle(connection));
+                        return;
+                    }
+                    TIMEOUT_EVICTIONS.increment();
+                    close(connection);
+                });
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        read(key);
+                    } else if (key.isWritable()) {
+                        write(key);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void registerChannel(Connection connection, int ops) {
+        if (connection.isClosed()) {
+            return;
+        }
+        if (!connection.getOutbound().isEmpty()) {
+            ops = SelectionKey.OP_WRITE;
+        }
+        try {
+            connection.setKey(connection.getChannel().register(selector, ops, connection));
+            connection.setInbound(directPool.acquire(INITIAL_BUFFER_SIZE));
+            connection.setTimeout(timeoutManager.addHandle(connection));
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel socketChannel = connection.getChannel();
+        PooledBuffer pooled = connection.getInbound();
+        if (pooled == null) {
+            return;
+        }
+        if (!pooled.buffer().hasRemaining()) {
+            pooled = grow(connection, pooled);
+        }
+        ByteBuffer buffer = pooled.buffer();
+        int numRead;
+        try {
+            numRead = socketChannel.read(buffer);
+        } catch (IOException e) {
+            key.cancel();
+            close(connection);
+            return;
+        }
+
+        if (numRead == -1) {
+            key.cancel();
+            close(connection);
+            return;
+        }
+        READ_BYTES.add(numRead);
+        timeoutManager.touch(connection.getTimeout());
+        buffer.flip();
+        try {
+            codec.decode(buffer, frame -> dispatch(connection, frame));
+        } catch (FrameTooLongException e) {
+            System.err.println(e.getMessage());
+            key.cancel();
+            close(connection);
+            return;
+        }
+        buffer.compact();
+    }
+
+    // A connection whose frames pile up in the workers stops being read until they drain, instead of blocking this
+    // thread and with it every other connection of the reactor. Frames already in the read buffer are still
+    // dispatched, so the limit may be exceeded by one read's worth.
+    private void dispatch(Connection connection, ByteBuffer frame) {
+        int queued = connection.frameQueued();
+        dispatcher.processData(server, connection, copyFrame(frame));
+        if ((queued >= maxQueuedFrames || dispatcher.isSaturated(connection))
+                && connection.pauseReads(resumeQueuedFrames)) {
+            READ_PAUSES.increment();
+            SelectionKey key = connection.getKey();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void resumeReads(Connection connection) {
+        SelectionKey key = connection.getKey();
+        if (connection.isReadsPaused() || key == null || !key.isValid()) {
+            return;
+        }
+        timeoutManager.touch(connection.getTimeout());
+        if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private PooledBuffer copyFrame(ByteBuffer frame) {
+        FRAMES.increment();
+        PooledBuffer data = heapPool.acquire(frame.remaining());
+        data.buffer().put(frame).flip();
+        return data;
+    }
+
+    private PooledBuffer grow(Connection connection, PooledBuffer pooled) {
+        ByteBuffer buffer = pooled.buffer();
+        int capacity = Math.min(buffer.capacity() * 2, codec.getMaxBufferLength());
+        PooledBuffer grown = directPool.acquire(capacity);
+        buffer.flip();
+        grown.buffer().put(buffer);
+        pooled.release();
+        connection.setInbound(grown);
+        return grown;
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        boolean flushed;
+        try {
+            flushed = connection.getOutbound().flush(connection.getChannel());
+        } catch (IOException e) {
+            key.cancel();
+            close(connection);
+            return;
+        }
+
+        if (flushed) {
+            key.interestOps(connection.isReadsPaused() ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (!connection.markClosed()) {
+            return;
+        }
+        OutboundBuffer outbound = connection.getOutbound();
+        outbound.close();
+        if (outbound.getDroppedBytes() > 0) {
+            System.err.println("Dropped " + outbound.getDroppedBytes() + " bytes for slow consumer " + connection);
+        }
+        PooledBuffer buffer = connection.getInbound();
+        if (buffer != null) {
+            buffer.release();
+            connection.setInbound(null);
+        }
+        if (connection.getTimeout() != null) {
+            timeoutManager.removeHandle(connection.getTimeout());
+        }
+        server.removeConnection(connection);
+        connections.decrementAndGet();
+        try {
+            connection.getChannel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,27 +1,74 @@
 package com.butler.server;
 
-import java.nio.channels.SocketChannel;
+import com.butler.util.json.WireFormat;
+
+import java.nio.ByteBuffer;
 
 public class ServerDataEvent {
     private NioServer server;
-    private SocketChannel socket;
-    private byte[] data;
+    private Connection connection;
+    private PooledBuffer data;
+    private final long createdNanos = System.nanoTime();
 
-    ServerDataEvent(NioServer server, SocketChannel socket, byte[] data) {
+    ServerDataEvent(NioServer server, Connection connection, PooledBuffer data) {
         this.server = server;
-        this.socket = socket;
+        this.connection = connection;
         this.data = data;
     }
 
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+
     NioServer getServer() {
         return server;
     }
 
-    public SocketChannel getSocket() {
-        return socket;
+    Connection getConnection() {
+        return connection;
+    }
+
+    public ByteBuffer getData() {
+        return data.buffer();
+    }
+
+    // The wire format only changes before the first other command, so replies already pipelined behind that command
+    // are never encoded in a format the client did not expect.
+    public boolean negotiate(WireFormat format) {
+        return connection.isNegotiable() && server.setWireFormat(connection, format);
+    }
+
+    public WireFormat getWireFormat() {
+        return connection.getWireFormat();
+    }
+
+    public void commandSeen() {
+        connection.commandSeen();
+    }
+
+    public boolean join(String topic) {
+        return server.join(connection, topic);
+    }
+
+    public boolean leave(String topic) {
+        return server.leave(connection, topic);
+    }
+
+    public void bindUser(int userId) {
+        server.bindUser(connection, userId);
+    }
+
+    public boolean isBoundTo(String userTopic) {
+        return server.isBoundTo(connection, userTopic);
+    }
+
+    void release() {
+        data.release();
     }
 
-    public byte[] getData() {
-        return data;
+    void frameHandled() {
+        if (connection != null) {
+            connection.getReactor().frameHandled(connection);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,16 @@
+package com.butler.server;
+
+enum SlowConsumerPolicy {
+    DROP_OLDEST,
+    DROP_NEW,
+    DISCONNECT;
+
+    static SlowConsumerPolicy fromName(String name) {
+        for (SlowConsumerPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return DROP_OLDEST;
+    }
+}
@@ -1,70 +1,119 @@
 package com.butler.server;
 
 import com.butler.socket.ConnectionProperties;
-import com.butler.socket.ReceiverSocketHandler;
 
-import java.io.IOException;
-import java.nio.channels.SocketChannel;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
-class TimeoutManager implements Runnable {
-    private Map<SocketChannel, Instant> channels = new ConcurrentHashMap<>();
-    private ReceiverSocketHandler receiverSocketHandler;
-    private final int threshold;
-    private final int threadCheckDelay;
-    private static long timeout;
+class TimeoutManager {
+    private static final int MAX_WHEEL_SIZE = 1 << 20;
 
-    private Consumer<SocketChannel> handler = channel -> {
-        if (Duration.between(channels.get(channel), Instant.now()).getSeconds() > timeout) {
-            removeHandle(channel);
-            receiverSocketHandler.removeClient(channel);
+    private final Handle[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long timeoutTicks;
+    private final LongSupplier clock;
+    private final long start;
+    private long currentTick;
+
+    TimeoutManager() {
+        this(ConnectionProperties.getProperties());
+    }
+
+    private TimeoutManager(Properties properties) {
+        this(Long.parseLong(properties.getProperty("timeout_tick_ms")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("timeout_sec"))),
+                MAX_WHEEL_SIZE, System::nanoTime);
+    }
+
+    // Handles further out than the wheel size stay in their bucket for more than one round.
+    TimeoutManager(long tickMs, long timeoutMs, int maxWheelSize, LongSupplier clock) {
+        if (tickMs < 1) {
+            throw new IllegalArgumentException("timeout_tick_ms must be at least 1, got " + tickMs);
         }
-    };
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        timeoutTicks = Math.max(1, (timeoutMs + tickMs - 1) / tickMs);
+        int size = Integer.highestOneBit((int) Math.min(timeoutTicks, maxWheelSize)) << 1;
+        wheel = new Handle[size];
+        mask = size - 1;
+        this.clock = clock;
+        start = clock.getAsLong();
+    }
 
-    TimeoutManager(ReceiverSocketHandler receiverSocketHandler) {
-        this.receiverSocketHandler = receiverSocketHandler;
-        Properties properties = ConnectionProperties.getProperties();
-        threshold = Integer.parseInt(properties.getProperty("connections_threshold"));
-        threadCheckDelay = Integer.parseInt(properties.getProperty("thread_check_delay_ms"));
-        timeout = Long.parseLong(properties.getProperty("timeout_sec"));
+    Handle addHandle(Connection connection) {
+        Handle handle = new Handle(connection);
+        handle.lastActive = currentTick;
+        link(handle, currentTick + timeoutTicks);
+        return handle;
     }
 
-    @Override
-    public void run() {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                Thread.sleep(threadCheckDelay);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            if (channels.isEmpty()) {
-                continue;
-            }
+    void touch(Handle handle) {
+        handle.lastActive = currentTick;
+    }
 
-            if (channels.size() > threshold) {
-                channels.keySet().parallelStream().forEach(handler);
-            } else {
-                channels.keySet().forEach(handler);
-            }
+    void removeHandle(Handle handle) {
+        if (handle.bucket < 0) {
+            return;
         }
+        if (handle.prev != null) {
+            handle.prev.next = handle.next;
+        } else {
+            wheel[handle.bucket] = handle.next;
+        }
+        if (handle.next != null) {
+            handle.next.prev = handle.prev;
+        }
+        handle.prev = null;
+        handle.next = null;
+        handle.bucket = -1;
     }
 
-    void addHandle(SocketChannel channel) {
-        channels.put(channel, Instant.now());
+    long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
     }
 
-    private void removeHandle(SocketChannel channel) {
-        channels.remove(channel);
-        try {
-            channel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    void expire(Consumer<Connection> onTimeout) {
+        long now = (clock.getAsLong() - start) / tickNanos;
+        while (currentTick < now) {
+            currentTick++;
+            Handle handle = wheel[(int) (currentTick & mask)];
+            while (handle != null) {
+                Handle next = handle.next;
+                long deadline = handle.lastActive + timeoutTicks;
+                if (deadline <= currentTick) {
+                    removeHandle(handle);
+                    onTimeout.accept(handle.connection);
+                } else if ((deadline & mask) != (currentTick & mask)) {
+                    removeHandle(handle);
+                    link(handle, deadline);
+                }
+                handle = next;
+            }
         }
     }
 
+    private void link(Handle handle, long deadline) {
+        int bucket = (int) (deadline & mask);
+        handle.bucket = bucket;
+        handle.prev = null;
+        handle.next = wheel[bucket];
+        if (wheel[bucket] != null) {
+            wheel[bucket].prev = handle;
+        }
+        wheel[bucket] = handle;
+    }
+
+    static class Handle {
+        private final Connection connection;
+        private long lastActive;
+        private int bucket = -1;
+        private Handle prev;
+        private Handle next;
+
+        private Handle(Connection connection) {
+            this.connection = connection;
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package com.butler.server;
+
+import com.butler.command.CommandManager;
+import com.butler.command.UserCache;
+import com.butler.metrics.Metrics;
+import com.butler.socket.ConnectionProperties;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.SenderSocketHandler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class VirtualThreadDispatcher implements EventDispatcher {
+    private final CommandManager commandManager;
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("command-", 0).factory();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxPending;
+
+    VirtualThreadDispatcher(DatabaseClient database, SenderSocketHandler sender, UserCache cache) {
+        commandManager = new CommandManager(database, sender, cache);
+        maxPending = Integer.parseInt(ConnectionProperties.getProperties().getProperty("virtual_max_pending"));
+        Metrics.gauge("worker.queue.depth", pending::get);
+    }
+
+    // Runs on a reactor thread, so it must never block: virtual_max_pending is only reported through
+    // isSaturated() and enforced by pausing reads on the connections that keep sending.
+    @Override
+    public void processData(NioServer server, Connection connection, PooledBuffer data) {
+        pending.incrementAndGet();
+        if (connection.getExecutor() == null) {
+            connection.setExecutor(new SerialExecutor());
+        }
+        ServerDataEvent dataEvent = new ServerDataEvent(server, connection, data);
+        connection.getExecutor().execute(() -> {
+            try {
+                Worker.handle(commandManager, dataEvent);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public boolean isSaturated(Connection connection) {
+        return pending.get() >= maxPending;
+    }
+
+    private class SerialExecutor implements Executor, Runnable {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+            if (scheduled.compareAndSet(false, true)) {
+                threadFactory.newThread(this).start();
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Runnable command;
+                while ((command = queue.poll()) != null) {
+                    try {
+                        command.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                scheduled.set(false);
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -1,38 +1,77 @@
 package com.butler.server;
 
 import com.butler.command.CommandManager;
+import com.butler.command.UserCache;
+import com.butler.metrics.Histogram;
+import com.butler.metrics.Metrics;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.SenderSocketHandler;
+import com.butler.util.json.WireFormat;
 
-import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 class Worker implements Runnable {
-    private final List<ServerDataEvent> queue = new LinkedList<>();
-    private CommandManager commandManager = new CommandManager();
-
-    void processData(NioServer server, SocketChannel socket, byte[] data, int count) {
-        byte[] dataCopy = new byte[count];
-        System.arraycopy(data, 0, dataCopy, 0, count);
-        synchronized (queue) {
-            queue.add(new ServerDataEvent(server, socket, dataCopy));
-            queue.notify();
-        }
+    private static final Histogram QUEUE_WAIT = Metrics.histogram("worker.queue.wait.nanos");
+
+    private final BlockingQueue<ServerDataEvent> queue = new LinkedBlockingQueue<>();
+    private final int queueCapacity;
+    private final DatabaseClient database;
+    private final SenderSocketHandler sender;
+    private final UserCache cache;
+
+    Worker(int queueCapacity, DatabaseClient database, SenderSocketHandler sender, UserCache cache) {
+        this.queueCapacity = queueCapacity;
+        this.database = database;
+        this.sender = sender;
+        this.cache = cache;
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    // Runs on a reactor thread, so it must never block: the capacity is only reported through isSaturated() and
+    // enforced by pausing reads on the connections that keep sending.
+    void processData(NioServer server, Connection connection, PooledBuffer data) {
+        queue.add(new ServerDataEvent(server, connection, data));
+    }
+
+    boolean isSaturated() {
+        return queue.size() >= queueCapacity;
     }
 
     public void run() {
-        ServerDataEvent dataEvent;
+        CommandManager commandManager = new CommandManager(database, sender, cache);
         while (!Thread.currentThread().isInterrupted()) {
-            synchronized (queue) {
-                while (queue.isEmpty()) {
-                    try {
-                        queue.wait();
-                    } catch (InterruptedException ignored) {
-                    }
-                }
-                dataEvent = queue.remove(0);
+            ServerDataEvent dataEvent;
+            try {
+                dataEvent = queue.take();
+            } catch (InterruptedException e) {
+                break;
             }
-            String data = commandManager.execute(dataEvent);
-            dataEvent.getServer().send(dataEvent.getSocket(), data.getBytes());
+            try {
+                handle(commandManager, dataEvent);
+            } catch (RuntimeException e) {
+                // one bad event must not stop replies to every connection sharded to this worker
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static void handle(CommandManager commandManager, ServerDataEvent dataEvent) {
+        QUEUE_WAIT.recordSince(dataEvent.getCreatedNanos());
+        WireFormat format = dataEvent.getConnection().getWireFormat();
+        String data;
+        try {
+            data = commandManager.execute(dataEvent);
+        } finally {
+            dataEvent.release();
+            dataEvent.frameHandled();
+        }
+        if (!data.isEmpty()) {
+            dataEvent.getServer().send(dataEvent.getConnection(), format, data.getBytes(StandardCharsets.UTF_8));
         }
     }
-}
\ No newline at end of file
+}
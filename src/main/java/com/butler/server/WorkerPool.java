@@ -0,0 +1,50 @@
+package com.butler.server;
+
+import com.butler.command.UserCache;
+import com.butler.metrics.Metrics;
+import com.butler.socket.ConnectionProperties;
+import com.butler.socket.DatabaseClient;
+import com.butler.socket.SenderSocketHandler;
+
+import java.util.Properties;
+
+class WorkerPool implements EventDispatcher {
+    private final Worker[] workers;
+
+    WorkerPool(DatabaseClient database, SenderSocketHandler sender, UserCache cache) {
+        Properties properties = ConnectionProperties.getProperties();
+        int workerCount = Integer.parseInt(properties.getProperty("worker_count"));
+        if (workerCount <= 0) {
+            workerCount = Runtime.getRuntime().availableProcessors();
+        }
+        int queueCapacity = Integer.parseInt(properties.getProperty("worker_queue_capacity"));
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            workers[i] = new Worker(queueCapacity, database, sender, cache);
+            new Thread(workers[i], "worker-" + i).start();
+        }
+        Metrics.gauge("worker.queue.depth", this::getQueueDepth);
+    }
+
+    long getQueueDepth() {
+        long depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public void processData(NioServer server, Connection connection, PooledBuffer data) {
+        workerFor(connection).processData(server, connection, data);
+    }
+
+    @Override
+    public boolean isSaturated(Connection connection) {
+        return workerFor(connection).isSaturated();
+    }
+
+    private Worker workerFor(Connection connection) {
+        return workers[Math.floorMod(connection.hashCode(), workers.length)];
+    }
+}
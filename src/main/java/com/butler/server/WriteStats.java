@@ -0,0 +1,48 @@
+package com.butler.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class WriteStats {
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder messagesWritten = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    void recordWriteCall() {
+        writeCalls.increment();
+    }
+
+    void recordMessages(int count) {
+        messagesWritten.add(count);
+    }
+
+    void recordDrop(int bytes) {
+        droppedBytes.add(bytes);
+        droppedMessages.increment();
+    }
+
+    void recordDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    long getMessagesWritten() {
+        return messagesWritten.sum();
+    }
+
+    long getDroppedBytes() {
+        return droppedBytes.sum();
+    }
+
+    long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+}
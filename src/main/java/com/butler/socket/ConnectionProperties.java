@@ -15,6 +15,12 @@ public final class ConnectionProperties {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        for (String name : properties.stringPropertyNames()) {
+            String override = System.getProperty(name);
+            if (override != null) {
+                properties.setProperty(name, override);
+            }
+        }
         return properties;
     }
 }
\ No newline at end of file
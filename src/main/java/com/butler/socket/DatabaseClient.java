@@ -0,0 +1,176 @@
+package com.butler.socket;
+
+import com.butler.metrics.Counter;
+import com.butler.metrics.Histogram;
+import com.butler.metrics.Metrics;
+import org.zeromq.ZMQ;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class DatabaseClient implements Runnable {
+    private static final String WAKEUP_ADDRESS = "inproc://database-client-wakeup";
+    private static final byte[] EMPTY = new byte[0];
+    private static final Histogram ROUND_TRIP = Metrics.histogram("database.rtt.nanos");
+    private static final Counter TIMEOUTS = Metrics.counter("database.timeouts");
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final ZMQ.Socket[] dealers;
+    private final ZMQ.Socket wakeupReceiver;
+    private final ZMQ.Socket wakeupSender;
+    private final ZMQ.Poller poller;
+    private final long timeoutMs;
+    private final int maxInFlight;
+
+    private final Queue<Request> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ReentrantLock wakeupLock = new ReentrantLock();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final Map<Long, Request> inFlight = new HashMap<>();
+    private final ArrayDeque<Request> deadlines = new ArrayDeque<>();
+    private int nextDealer;
+
+    public DatabaseClient() {
+        Properties properties = ConnectionProperties.getProperties();
+        String address = properties.getProperty("database_address");
+        int sockets = Integer.parseInt(properties.getProperty("database_sockets"));
+        timeoutMs = Long.parseLong(properties.getProperty("database_timeout_ms"));
+        maxInFlight = Integer.parseInt(properties.getProperty("database_max_in_flight"));
+
+        ZMQ.Context context = ZmqContextHolder.getContext();
+        wakeupReceiver = context.socket(ZMQ.PAIR);
+        String wakeupAddress = WAKEUP_ADDRESS + "-" + INSTANCES.incrementAndGet();
+        wakeupReceiver.bind(wakeupAddress);
+        wakeupSender = context.socket(ZMQ.PAIR);
+        wakeupSender.connect(wakeupAddress);
+
+        poller = new ZMQ.Poller(sockets + 1);
+        poller.register(wakeupReceiver, ZMQ.Poller.POLLIN);
+        dealers = new ZMQ.Socket[sockets];
+        for (int i = 0; i < sockets; ++i) {
+            dealers[i] = context.socket(ZMQ.DEALER);
+            dealers[i].setLinger(0);
+            dealers[i].connect(address);
+            poller.register(dealers[i], ZMQ.Poller.POLLIN);
+        }
+    }
+
+    public CompletableFuture<String> request(byte[] message) {
+        Request request = new Request(nextId.incrementAndGet(), message);
+        outgoing.add(request);
+        wakeup();
+        return request.future;
+    }
+
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            wakeupLock.lock();
+            try {
+                wakeupSender.send(EMPTY, 0);
+            } finally {
+                wakeupLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            poller.poll(pollTimeout());
+            if (poller.pollin(0)) {
+                wakeupReceiver.recv(ZMQ.DONTWAIT);
+                wakeupPending.set(false);
+            }
+            for (int i = 0; i < dealers.length; ++i) {
+                if (poller.pollin(i + 1)) {
+                    receiveReplies(dealers[i]);
+                }
+            }
+            expire();
+            sendOutgoing();
+        }
+        for (ZMQ.Socket dealer : dealers) {
+            dealer.close();
+        }
+        wakeupSender.close();
+        wakeupReceiver.close();
+    }
+
+    private void sendOutgoing() {
+        Request request;
+        while (inFlight.size() < maxInFlight && (request = outgoing.poll()) != null) {
+            request.deadline = System.currentTimeMillis() + timeoutMs;
+            request.sentNanos = System.nanoTime();
+            inFlight.put(request.id, request);
+            deadlines.add(request);
+            ZMQ.Socket dealer = dealers[nextDealer];
+            nextDealer = (nextDealer + 1) % dealers.length;
+            dealer.sendMore(ByteBuffer.allocate(Long.BYTES).putLong(request.id).array());
+            dealer.sendMore(EMPTY);
+            dealer.send(request.message);
+        }
+    }
+
+    private void receiveReplies(ZMQ.Socket dealer) {
+        byte[] id;
+        while ((id = dealer.recv(ZMQ.DONTWAIT)) != null) {
+            String reply = null;
+            while (dealer.hasReceiveMore()) {
+                reply = dealer.recvStr();
+            }
+            if (id.length != Long.BYTES || reply == null) {
+                continue;
+            }
+            Request request = inFlight.remove(ByteBuffer.wrap(id).getLong());
+            if (request != null) {
+                ROUND_TRIP.recordSince(request.sentNanos);
+                request.future.complete(reply);
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Request request;
+        while ((request = deadlines.peek()) != null && (request.future.isDone() || request.deadline <= now)) {
+            deadlines.poll();
+            if (inFlight.remove(request.id) != null) {
+                TIMEOUTS.increment();
+                request.future.completeExceptionally(new TimeoutException("Database request " + request.id + " timed out"));
+            }
+        }
+    }
+
+    private long pollTimeout() {
+        Request request = deadlines.peek();
+        if (request == null) {
+            return -1;
+        }
+        return Math.max(1, request.deadline - System.currentTimeMillis());
+    }
+
+    private static class Request {
+        private final long id;
+        private final byte[] message;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private long deadline;
+        private long sentNanos;
+
+        Request(long id, byte[] message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+}
@@ -1,61 +1,256 @@
 package com.butler.socket;
 
+import com.butler.metrics.Histogram;
+import com.butler.metrics.Metrics;
+import com.butler.server.Connection;
 import com.butler.server.NioServer;
+import com.butler.server.PooledBuffer;
+import com.butler.util.json.WireFormat;
 import org.zeromq.ZMQ;
 
-import java.nio.channels.SocketChannel;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 public class ReceiverSocketHandler implements Runnable {
+    public static final String DEFAULT_TOPIC = "lobby";
+    public static final byte TOPIC_SEPARATOR = 0;
+    private static final String USER_TOPIC_PREFIX = "@";
+    private static final int MAX_TOPIC_LENGTH = 64;
+    private static final String WAKEUP_ADDRESS = "inproc://receiver-wakeup";
+    private static final byte[] EMPTY = new byte[0];
+    private static final Histogram FAN_OUT = Metrics.histogram("broadcast.fanout.nanos");
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
     private static int CUTOFF;
     private ZMQ.Socket receiver;
     private NioServer server;
     private ZMQ.Poller poller;
-    private List<SocketChannel> clients = new CopyOnWriteArrayList<>();
+
+    private final ZMQ.Socket wakeupReceiver;
+    private final ZMQ.Socket wakeupSender;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ReentrantLock wakeupLock = new ReentrantLock();
+
+    private final Map<String, Set<Connection>> topics = new ConcurrentHashMap<>();
+    private final Queue<String> changedTopics = new ConcurrentLinkedQueue<>();
+    private final Set<String> subscribed = new HashSet<>();
 
     public ReceiverSocketHandler(NioServer server) {
         Properties properties = ConnectionProperties.getProperties();
         CUTOFF = Integer.parseInt(properties.getProperty("connections_threshold"));
         this.server = server;
-        receiver = ZmqContextHolder.getContext().socket(ZMQ.SUB);
+        ZMQ.Context context = ZmqContextHolder.getContext();
+        receiver = context.socket(ZMQ.SUB);
         receiver.connect(properties.getProperty("chat_receiver_address"));
-        receiver.subscribe("".getBytes());
-        poller = new ZMQ.Poller(0);
+        wakeupReceiver = context.socket(ZMQ.PAIR);
+        String wakeupAddress = WAKEUP_ADDRESS + "-" + INSTANCES.incrementAndGet();
+        wakeupReceiver.bind(wakeupAddress);
+        wakeupSender = context.socket(ZMQ.PAIR);
+        wakeupSender.connect(wakeupAddress);
+        if (server.isJournaled(DEFAULT_TOPIC)) {
+            subscribed.add(DEFAULT_TOPIC);
+            receiver.subscribe(topicPrefix(DEFAULT_TOPIC));
+        }
+        if (server.journalsDirectMessages()) {
+            // one subscription covers every user topic, online or not
+            receiver.subscribe(USER_TOPIC_PREFIX.getBytes(StandardCharsets.UTF_8));
+        }
+        poller = new ZMQ.Poller(2);
         poller.register(receiver, ZMQ.Poller.POLLIN);
+        poller.register(wakeupReceiver, ZMQ.Poller.POLLIN);
+    }
+
+    public static boolean isValidTopic(String topic) {
+        return topic != null && !topic.isEmpty() && topic.length() <= MAX_TOPIC_LENGTH
+                && topic.indexOf(TOPIC_SEPARATOR) < 0;
+    }
+
+    public static String userTopic(int userId) {
+        return USER_TOPIC_PREFIX + userId;
+    }
+
+    public static boolean isUserTopic(String topic) {
+        return topic.startsWith(USER_TOPIC_PREFIX);
     }
 
-    public void addClient(SocketChannel channel) {
-        if (!clients.contains(channel)) {
-            clients.add(channel);
+    // Returns 0, which no user has, for a user topic that does not name one.
+    public static int userIdOf(String topic) {
+        try {
+            return Integer.parseInt(topic.substring(USER_TOPIC_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static byte[] topicPrefix(String topic) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = Arrays.copyOf(name, name.length + 1);
+        prefix[name.length] = TOPIC_SEPARATOR;
+        return prefix;
+    }
+
+    public void addClient(Connection connection) {
+        join(connection, DEFAULT_TOPIC);
+    }
+
+    public void removeClient(Connection connection) {
+        for (String topic : connection.getTopics()) {
+            leave(connection, topic);
+        }
+    }
+
+    public boolean join(Connection connection, String topic) {
+        if (connection.isClosed() || !isValidTopic(topic)) {
+            return false;
+        }
+        if (connection.getTopics().add(topic)) {
+            topics.compute(topic, (key, members) -> {
+                if (members == null) {
+                    members = ConcurrentHashMap.newKeySet();
+                }
+                members.add(connection);
+                return members;
+            });
+            changed(topic);
+            if (connection.isClosed()) {
+                leave(connection, topic);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void bindUser(Connection connection, int userId) {
+        String bound = userTopic(userId);
+        for (String topic : connection.getTopics()) {
+            if (isUserTopic(topic) && !topic.equals(bound)) {
+                leave(connection, topic);
+            }
         }
+        join(connection, bound);
     }
 
-    public void removeClient(SocketChannel channel) {
-        int i = clients.indexOf(channel);
-        if (i >= 0) {
-            clients.remove(i);
+    public boolean leave(Connection connection, String topic) {
+        if (!connection.getTopics().remove(topic)) {
+            return false;
+        }
+        topics.computeIfPresent(topic, (key, members) -> {
+            members.remove(connection);
+            return members.isEmpty() ? null : members;
+        });
+        changed(topic);
+        return true;
+    }
+
+    private void changed(String topic) {
+        changedTopics.add(topic);
+        if (wakeupPending.compareAndSet(false, true)) {
+            wakeupLock.lock();
+            try {
+                wakeupSender.send(EMPTY, 0);
+            } finally {
+                wakeupLock.unlock();
+            }
         }
     }
 
     @Override
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
-            int events = poller.poll();
-            if (events > 0) {
-                String reply = receiver.recvStr();
-                Consumer<SocketChannel> handler =  channel -> {
-                    server.send(channel, (reply + "\n").getBytes());
-                };
-
-                if (clients.size() > CUTOFF) {
-                    clients.parallelStream().forEach(handler);
-                } else {
-                    clients.forEach(handler);
+            poller.poll();
+            if (poller.pollin(1)) {
+                wakeupReceiver.recv(ZMQ.DONTWAIT);
+                wakeupPending.set(false);
+                applySubscriptions();
+            }
+            if (poller.pollin(0)) {
+                byte[] frame;
+                while ((frame = receiver.recv(ZMQ.DONTWAIT)) != null) {
+                    deliver(frame);
                 }
             }
         }
     }
+
+    private void applySubscriptions() {
+        String topic;
+        while ((topic = changedTopics.poll()) != null) {
+            if (isUserTopic(topic) && server.journalsDirectMessages()) {
+                continue;
+            }
+            if (topics.containsKey(topic) || server.isJournaled(topic)) {
+                if (subscribed.add(topic)) {
+                    receiver.subscribe(topicPrefix(topic));
+                }
+            } else if (subscribed.remove(topic)) {
+                receiver.unsubscribe(topicPrefix(topic));
+            }
+        }
+    }
+
+    private void deliver(byte[] frame) {
+        long start = System.nanoTime();
+        int separator = indexOf(frame, TOPIC_SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+        String topic = new String(frame, 0, separator, StandardCharsets.UTF_8);
+        Set<Connection> members = topics.get(topic);
+        boolean journaled = server.isJournaled(topic);
+        if (!journaled && (members == null || members.isEmpty())) {
+            return;
+        }
+        byte[] reply = Arrays.copyOfRange(frame, separator + 1, frame.length);
+        PooledBuffer encoded = server.encode(reply);
+        long offset = journaled ? server.journal(topic, encoded) : -1;
+        boolean direct = isUserTopic(topic);
+        if (members == null || members.isEmpty()) {
+            encoded.release();
+            return;
+        }
+        PooledBuffer binaryFrame = server.hasBinaryClients() ? server.encode(WireFormat.SMILE.fromJson(reply)) : null;
+        Consumer<Connection> handler = connection -> {
+            if (offset >= 0 && offset < (direct ? connection.getDirectOffset() : connection.getJournalOffset())) {
+                return;
+            }
+            if (binaryFrame != null && connection.getWireFormat() == WireFormat.SMILE) {
+                server.send(connection, binaryFrame);
+            } else {
+                server.send(connection, encoded);
+            }
+        };
+
+        try {
+            if (members.size() > CUTOFF) {
+                members.parallelStream().forEach(handler);
+            } else {
+                members.forEach(handler);
+            }
+        } finally {
+            encoded.release();
+            if (binaryFrame != null) {
+                binaryFrame.release();
+            }
+            FAN_OUT.recordSince(start);
+        }
+    }
+
+    private static int indexOf(byte[] frame, byte value) {
+        for (int i = 0; i < frame.length; ++i) {
+            if (frame[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -1,21 +1,96 @@
 package com.butler.socket;
 
+import com.butler.metrics.Counter;
+import com.butler.metrics.Histogram;
+import com.butler.metrics.Metrics;
 import org.zeromq.ZMQ;
 
-public class SenderSocketHandler implements AutoCloseable {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class SenderSocketHandler implements Runnable {
+    private static final Counter PUBLISHED = Metrics.counter("chat.published");
+    private static final Counter REJECTED = Metrics.counter("chat.rejected");
+    private static final Counter OVERFLOW = Metrics.counter("chat.overflow");
+    private static final Histogram BATCH_SIZE = Metrics.histogram("chat.batch.size");
+
+    private final BlockingQueue<byte[]> outgoing;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long maxDelayNanos;
+    private final List<byte[]> batch = new ArrayList<>();
     private ZMQ.Socket sender;
 
     public SenderSocketHandler() {
+        Properties properties = ConnectionProperties.getProperties();
+        outgoing = new LinkedBlockingQueue<>(Integer.parseInt(properties.getProperty("chat_queue_capacity")));
+        maxMessages = Integer.parseInt(properties.getProperty("chat_batch_max_messages"));
+        maxBytes = Integer.parseInt(properties.getProperty("chat_batch_max_bytes"));
+        maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(properties.getProperty("chat_batch_max_delay_us")));
         sender = ZmqContextHolder.getContext().socket(ZMQ.PUSH);
-        sender.connect(ConnectionProperties.getProperties().getProperty("chat_sender_address"));
+        sender.connect(properties.getProperty("chat_sender_address"));
     }
 
-    public void send(String message) {
-        sender.send(message);
+    // Called from the workers, so a full queue rejects the message instead of stalling every connection behind it.
+    public boolean send(String topic, byte[] message, int offset, int length) {
+        if (!ReceiverSocketHandler.isValidTopic(topic)) {
+            REJECTED.increment();
+            return false;
+        }
+        byte[] prefix = ReceiverSocketHandler.topicPrefix(topic);
+        byte[] frame = Arrays.copyOf(prefix, prefix.length + length);
+        System.arraycopy(message, offset, frame, prefix.length, length);
+        if (!outgoing.offer(frame)) {
+            OVERFLOW.increment();
+            return false;
+        }
+        return true;
     }
 
     @Override
-    public void close() throws Exception {
-        sender.close();
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                collect(outgoing.take());
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sender.close();
+        }
+    }
+
+    private void collect(byte[] first) throws InterruptedException {
+        batch.add(first);
+        int bytes = first.length;
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxMessages && bytes < maxBytes) {
+            byte[] next = outgoing.poll();
+            if (next == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || (next = outgoing.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+                    return;
+                }
+            }
+            batch.add(next);
+            bytes += next.length;
+        }
+    }
+
+    private void flush() {
+        int last = batch.size() - 1;
+        for (int i = 0; i < last; ++i) {
+            sender.sendMore(batch.get(i));
+        }
+        sender.send(batch.get(last), 0);
+        PUBLISHED.add(batch.size());
+        BATCH_SIZE.record(batch.size());
+        batch.clear();
     }
 }
@@ -0,0 +1,57 @@
+package com.butler.util.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+public final class CommandScanner {
+    private static final String COMMAND_FIELD = "command";
+    private static final String NO_COMMAND = "";
+
+    private static JsonFactory factory = new JsonFactory();
+
+    private CommandScanner() {
+    }
+
+    public static String scan(byte[] json, int offset, int length) {
+        return scan(json, offset, length, COMMAND_FIELD);
+    }
+
+    public static int scanInt(byte[] json, int offset, int length, String name) {
+        try (JsonParser parser = factory.createParser(json, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return 0;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals(field)) {
+                    return value == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : 0;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException ignored) {
+        }
+        return 0;
+    }
+
+    public static String scan(byte[] json, int offset, int length, String name) {
+        try (JsonParser parser = factory.createParser(json, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return NO_COMMAND;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals(field)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : NO_COMMAND;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException ignored) {
+        }
+        return NO_COMMAND;
+    }
+}
@@ -4,6 +4,7 @@ public class JsonMessage {
     private String command;
     private String username;
     private String content;
+    private String topic;
 
     private int to;
     private int from;
@@ -17,6 +18,10 @@ public class JsonMessage {
         this.content = content;
     }
 
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
     public void setTo(int to) {
         this.to = to;
     }
@@ -37,6 +42,10 @@ public class JsonMessage {
         return username;
     }
 
+    public String getTopic() {
+        return topic;
+    }
+
     public int getTo() {
         return to;
     }
@@ -26,6 +26,14 @@ public final class JsonObjectFactory {
         }
     }
 
+    public static <T> T getObjectFromJson(byte[] json, int offset, int length, Class<T> tClass) {
+        try {
+            return mapper.readValue(json, offset, length, tClass);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public static <T> T getObjectFromJson(String json, Class<T> tClass) {
         try {
             return mapper.readValue(json, tClass);
@@ -0,0 +1,81 @@
+package com.butler.util.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public enum WireFormat {
+    JSON("json"),
+    SMILE("smile");
+
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+
+    private static JsonFactory jsonFactory = new JsonFactory();
+    private static SmileFactory smileFactory = new SmileFactory();
+
+    private final String name;
+
+    WireFormat(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static WireFormat fromName(String name) {
+        for (WireFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+
+    public static boolean isSmile(ByteBuffer frame) {
+        if (frame.remaining() < SMILE_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < SMILE_HEADER.length; ++i) {
+            if (frame.get(frame.position() + i) != SMILE_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static ByteBuffer toJson(ByteBuffer frame) {
+        if (!isSmile(frame)) {
+            return frame;
+        }
+        byte[] json = transcode(smileFactory, frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), jsonFactory);
+        return json == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(json);
+    }
+
+    public byte[] fromJson(byte[] json) {
+        if (this == JSON) {
+            return json;
+        }
+        byte[] smile = transcode(jsonFactory, json, 0, json.length, smileFactory);
+        return smile == null ? json : smile;
+    }
+
+    private static byte[] transcode(JsonFactory from, byte[] data, int offset, int length, JsonFactory to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        try (JsonParser parser = from.createParser(data, offset, length);
+             JsonGenerator generator = to.createGenerator(out)) {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+}
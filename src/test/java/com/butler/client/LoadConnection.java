@@ -0,0 +1,115 @@
+package com.butler.client;
+
+import com.butler.metrics.Histogram;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+class LoadConnection {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final SocketChannel channel;
+    private final String login;
+    private final Queue<Pending> pending = new ArrayDeque<>();
+    private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private boolean connected;
+
+    LoadConnection(SocketChannel channel, String login) {
+        this.channel = channel;
+        this.login = login;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    String getLogin() {
+        return login;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    void expectReply(long intendedNanos, Histogram histogram) {
+        pending.add(new Pending(intendedNanos, histogram));
+    }
+
+    Pending nextReply() {
+        return pending.poll();
+    }
+
+    Pending peekReply() {
+        return pending.peek();
+    }
+
+    Iterable<Pending> pendingReplies() {
+        return pending;
+    }
+
+    int getPendingReplies() {
+        return pending.size();
+    }
+
+    void append(byte[] payload) {
+        if (out.remaining() < payload.length + 1) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + payload.length + 1));
+            out.flip();
+            grown.put(out);
+            out = grown;
+        }
+        out.put(payload).put((byte) '\n');
+    }
+
+    boolean hasOutput() {
+        return out.position() > 0;
+    }
+
+    ByteBuffer getOutput() {
+        return out;
+    }
+
+    ByteBuffer getInput() {
+        if (!in.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            grown.put(in);
+            in = grown;
+        }
+        return in;
+    }
+
+    static class Pending {
+        private final long intendedNanos;
+        private final Histogram histogram;
+        private boolean timedOut;
+
+        private Pending(long intendedNanos, Histogram histogram) {
+            this.intendedNanos = intendedNanos;
+            this.histogram = histogram;
+        }
+
+        long getIntendedNanos() {
+            return intendedNanos;
+        }
+
+        Histogram getHistogram() {
+            return histogram;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        void markTimedOut() {
+            timedOut = true;
+        }
+    }
+}
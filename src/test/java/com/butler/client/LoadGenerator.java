@@ -0,0 +1,159 @@
+package com.butler.client;
+
+import com.butler.metrics.Histogram;
+import com.butler.socket.ConnectionProperties;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Open-loop load generator. Requests are issued on a fixed schedule regardless of how fast the server
+ * answers, and latency is measured from the time a request was scheduled rather than the time it was
+ * written, so a stalled server shows up as latency instead of as a lower request rate.
+ *
+ * <p>Configured with system properties: {@code load.connections}, {@code load.selectors},
+ * {@code load.rate} (requests per second), {@code load.duration} and {@code load.drain} (seconds),
+ * {@code load.reply_timeout_ms} after which a reply counts as an error, {@code load.reset_timeout_ms} after
+ * which it is presumed lost and its connection is closed, and {@code load.mix}, a list of command weights
+ * such as {@code getUserByLoginPassword=1,message=9}.
+ */
+public class LoadGenerator {
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final String[] schedule;
+    private final long durationNanos;
+    private final long drainNanos;
+    private final long replyTimeoutNanos;
+    private final long resetTimeoutNanos;
+    private volatile long startNanos;
+
+    private final LongAdder chatSent = new LongAdder();
+    private final LongAdder chatReceived = new LongAdder();
+    private final LongAdder broadcastsReceived = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private LoadGenerator(String mix, long durationNanos, long drainNanos, long replyTimeoutNanos,
+                          long resetTimeoutNanos) {
+        this.durationNanos = durationNanos;
+        this.drainNanos = drainNanos;
+        this.replyTimeoutNanos = replyTimeoutNanos;
+        this.resetTimeoutNanos = resetTimeoutNanos;
+        List<String> commands = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] weighted = entry.trim().split("=");
+            int weight = weighted.length > 1 ? Integer.parseInt(weighted[1].trim()) : 1;
+            histograms.put(weighted[0].trim(), new Histogram());
+            for (int i = 0; i < weight; ++i) {
+                commands.add(weighted[0].trim());
+            }
+        }
+        schedule = commands.toArray(new String[0]);
+    }
+
+    String pickCommand(long sequence) {
+        return schedule[(int) (sequence % schedule.length)];
+    }
+
+    Histogram getHistogram(String command) {
+        return histograms.get(command);
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    long getDrainNanos() {
+        return drainNanos;
+    }
+
+    long getReplyTimeoutNanos() {
+        return replyTimeoutNanos;
+    }
+
+    long getResetTimeoutNanos() {
+        return resetTimeoutNanos;
+    }
+
+    LongAdder getChatSent() {
+        return chatSent;
+    }
+
+    LongAdder getChatReceived() {
+        return chatReceived;
+    }
+
+    LongAdder getBroadcastsReceived() {
+        return broadcastsReceived;
+    }
+
+    LongAdder getErrors() {
+        return errors;
+    }
+
+    private void report(List<LoadLoop> loops, double seconds) {
+        System.out.printf("%-24s %10s %10s %10s %10s %10s %10s%n",
+                "command", "count", "req/s", "p50 us", "p99 us", "p999 us", "max us");
+        histograms.forEach((command, histogram) -> System.out.printf("%-24s %10d %10.0f %10.1f %10.1f %10.1f %10.1f%n",
+                command, histogram.getCount(), histogram.getCount() / seconds,
+                micros(histogram.getPercentile(50)), micros(histogram.getPercentile(99)),
+                micros(histogram.getPercentile(99.9)), micros(histogram.getMax())));
+        int outstanding = 0;
+        for (LoadLoop loop : loops) {
+            outstanding += loop.getPendingReplies();
+        }
+        System.out.println("chat sent " + chatSent.sum() + ", own chat received " + chatReceived.sum()
+                + ", broadcasts received " + broadcastsReceived.sum());
+        System.out.println("replies outstanding " + outstanding + ", errors " + errors.sum());
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = ConnectionProperties.getProperties();
+        String host = properties.getProperty("butler_address");
+        int port = Integer.parseInt(properties.getProperty("butler_port"));
+        int connections = Integer.getInteger("load.connections", 1000);
+        int selectors = Integer.getInteger("load.selectors", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int rate = Integer.getInteger("load.rate", 10000);
+        long duration = TimeUnit.SECONDS.toNanos(Integer.getInteger("load.duration", 30));
+        long drain = TimeUnit.SECONDS.toNanos(Integer.getInteger("load.drain", 10));
+        long replyTimeout = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("load.reply_timeout_ms", 5000));
+        long resetTimeout = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("load.reset_timeout_ms", 15000));
+        String mix = System.getProperty("load.mix", "getUserByLoginPassword=2,getUserByLogin=1,message=7");
+
+        selectors = Math.min(selectors, connections);
+        LoadGenerator generator = new LoadGenerator(mix, duration, drain, replyTimeout, resetTimeout);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(selectors) / rate;
+        CyclicBarrier barrier = new CyclicBarrier(selectors, () -> generator.startNanos = System.nanoTime());
+        List<LoadLoop> loops = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < selectors; ++i) {
+            int first = connections * i / selectors;
+            int count = connections * (i + 1) / selectors - first;
+            LoadLoop loop = new LoadLoop(generator, address, first, count, intervalNanos, intervalNanos * i / selectors, barrier);
+            loops.add(loop);
+            Thread thread = new Thread(loop, "load-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        generator.report(loops, duration / 1e9);
+    }
+}
@@ -0,0 +1,308 @@
+package com.butler.client;
+
+import com.butler.metrics.Histogram;
+import com.butler.util.entity.User;
+import com.butler.util.json.CommandScanner;
+import com.butler.util.json.JsonMessage;
+import com.butler.util.json.JsonObjectFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+class LoadLoop implements Runnable {
+    private static final String MESSAGE = "message";
+    private static final String NEW_USER = "newUser";
+    private static final long EXPIRE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final LoadGenerator generator;
+    private final Selector selector;
+    private final LoadConnection[] connections;
+    private final long intervalNanos;
+    private final long offsetNanos;
+    private final CyclicBarrier barrier;
+
+    private final LongAdder chatSent;
+    private final LongAdder chatReceived;
+    private final LongAdder broadcastsReceived;
+    private final LongAdder errors;
+
+    private int nextConnection;
+    private long sequence;
+    private long lastExpiry;
+
+    LoadLoop(LoadGenerator generator, InetSocketAddress address, int firstLogin, int connectionCount,
+             long intervalNanos, long offsetNanos, CyclicBarrier barrier) throws IOException {
+        this.generator = generator;
+        this.intervalNanos = intervalNanos;
+        this.offsetNanos = offsetNanos;
+        this.barrier = barrier;
+        chatSent = generator.getChatSent();
+        chatReceived = generator.getChatReceived();
+        broadcastsReceived = generator.getBroadcastsReceived();
+        errors = generator.getErrors();
+        selector = Selector.open();
+        connections = new LoadConnection[connectionCount];
+        for (int i = 0; i < connectionCount; ++i) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            connections[i] = new LoadConnection(channel, "load-" + (firstLogin + i));
+            channel.register(selector, SelectionKey.OP_CONNECT, connections[i]);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            signUp();
+            barrier.await();
+            long start = generator.getStartNanos();
+            long end = start + generator.getDurationNanos();
+            long next = start + offsetNanos;
+            while (next < end && !Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                while (next <= now && next < end) {
+                    fire(next);
+                    next += intervalNanos;
+                }
+                select(next - System.nanoTime());
+            }
+            long drainDeadline = System.nanoTime() + generator.getDrainNanos();
+            while (System.nanoTime() < drainDeadline && (hasPendingReplies() || chatReceived.sum() < chatSent.sum())) {
+                select(drainDeadline - System.nanoTime());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    int getPendingReplies() {
+        int pendingReplies = 0;
+        for (LoadConnection connection : connections) {
+            pendingReplies += connection.getPendingReplies();
+        }
+        return pendingReplies;
+    }
+
+    private boolean hasPendingReplies() {
+        return getPendingReplies() > 0;
+    }
+
+    private void signUp() throws IOException {
+        long deadline = System.nanoTime() + generator.getDrainNanos();
+        int connected = 0;
+        while (System.nanoTime() < deadline && (connected < connections.length || hasPendingReplies())) {
+            select(deadline - System.nanoTime());
+            connected = 0;
+            for (LoadConnection connection : connections) {
+                if (connection.isConnected()) {
+                    connected++;
+                }
+            }
+        }
+        if (connected < connections.length || hasPendingReplies()) {
+            System.err.println("Sign up incomplete: " + connected + "/" + connections.length + " connected, "
+                    + getPendingReplies() + " replies outstanding");
+        }
+    }
+
+    private void fire(long intendedNanos) throws IOException {
+        LoadConnection connection = connections[nextConnection];
+        nextConnection = (nextConnection + 1) % connections.length;
+        if (!connection.isConnected()) {
+            errors.increment();
+            return;
+        }
+        String command = generator.pickCommand(sequence++);
+        if (MESSAGE.equals(command)) {
+            JsonMessage message = new JsonMessage(MESSAGE, connection.getLogin(), Long.toString(intendedNanos));
+            connection.append(JsonObjectFactory.getJsonString(message).getBytes(StandardCharsets.UTF_8));
+            chatSent.increment();
+        } else {
+            User user = new User(connection.getLogin(), connection.getLogin());
+            connection.append(JsonObjectFactory.getJsonString(command, user).getBytes(StandardCharsets.UTF_8));
+            connection.expectReply(intendedNanos, generator.getHistogram(command));
+        }
+        flush(connection);
+    }
+
+    private void select(long timeoutNanos) throws IOException {
+        long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+        if (timeoutMillis <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(timeoutMillis);
+        }
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
+            LoadConnection connection = (LoadConnection) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isConnectable()) {
+                    finishConnection(key, connection);
+                    continue;
+                }
+                if (key.isReadable()) {
+                    read(key, connection);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(connection);
+                }
+            } catch (IOException e) {
+                errors.increment();
+                disconnect(key, connection);
+            }
+        }
+        expire(System.nanoTime());
+    }
+
+    private void expire(long now) {
+        if (now - lastExpiry < EXPIRE_INTERVAL_NANOS) {
+            return;
+        }
+        lastExpiry = now;
+        // Replies are matched in order, so a late request is only counted as an error and keeps its place to
+        // consume its late reply. Past the reset timeout the reply is presumed lost and the connection is closed,
+        // since every reply behind it would otherwise be measured against the wrong request.
+        for (LoadConnection connection : connections) {
+            LoadConnection.Pending oldest = connection.peekReply();
+            if (oldest != null && now - oldest.getIntendedNanos() > generator.getResetTimeoutNanos()) {
+                disconnect(connection.getChannel().keyFor(selector), connection);
+                continue;
+            }
+            for (LoadConnection.Pending pending : connection.pendingReplies()) {
+                if (now - pending.getIntendedNanos() <= generator.getReplyTimeoutNanos()) {
+                    break;
+                }
+                if (!pending.isTimedOut()) {
+                    pending.markTimedOut();
+                    errors.increment();
+                }
+            }
+        }
+    }
+
+    private void finishConnection(SelectionKey key, LoadConnection connection) throws IOException {
+        connection.getChannel().finishConnect();
+        connection.setConnected(true);
+        key.interestOps(SelectionKey.OP_READ);
+        User user = new User(connection.getLogin(), connection.getLogin());
+        connection.append(JsonObjectFactory.getJsonString(NEW_USER, user).getBytes(StandardCharsets.UTF_8));
+        connection.expectReply(System.nanoTime(), null);
+        flush(connection);
+    }
+
+    private void read(SelectionKey key, LoadConnection connection) throws IOException {
+        ByteBuffer in = connection.getInput();
+        int numRead = connection.getChannel().read(in);
+        if (numRead == -1) {
+            errors.increment();
+            disconnect(key, connection);
+            return;
+        }
+        long now = System.nanoTime();
+        in.flip();
+        byte[] data = in.array();
+        int start = in.position();
+        for (int i = start; i < in.limit(); ++i) {
+            if (data[i] == '\n') {
+                handleFrame(connection, data, start, i - start, now);
+                start = i + 1;
+            }
+        }
+        in.position(start);
+        in.compact();
+    }
+
+    private void handleFrame(LoadConnection connection, byte[] data, int offset, int length, long now) {
+        if (length == 0) {
+            return;
+        }
+        String command = CommandScanner.scan(data, offset, length);
+        if (MESSAGE.equals(command)) {
+            broadcastsReceived.increment();
+            JsonMessage message = JsonObjectFactory.getObjectFromJson(data, offset, length, JsonMessage.class);
+            if (message != null && connection.getLogin().equals(message.getUsername())) {
+                chatReceived.increment();
+                try {
+                    generator.getHistogram(MESSAGE).record(now - Long.parseLong(message.getContent()));
+                } catch (NumberFormatException e) {
+                    errors.increment();
+                }
+            }
+            return;
+        }
+        if (!command.isEmpty()) {
+            return;
+        }
+        LoadConnection.Pending pending = connection.nextReply();
+        if (pending == null) {
+            errors.increment();
+        } else if (!pending.isTimedOut() && pending.getHistogram() != null) {
+            pending.getHistogram().record(now - pending.getIntendedNanos());
+        }
+    }
+
+    private void flush(LoadConnection connection) throws IOException {
+        SelectionKey key = connection.getChannel().keyFor(selector);
+        if (key == null || !key.isValid() || !connection.isConnected()) {
+            return;
+        }
+        ByteBuffer out = connection.getOutput();
+        out.flip();
+        try {
+            connection.getChannel().write(out);
+        } finally {
+            out.compact();
+        }
+        key.interestOps(connection.hasOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void disconnect(SelectionKey key, LoadConnection connection) {
+        if (key != null) {
+            key.cancel();
+        }
+        connection.setConnected(false);
+        LoadConnection.Pending pending;
+        while ((pending = connection.nextReply()) != null) {
+            if (!pending.isTimedOut()) {
+                errors.increment();
+            }
+        }
+        try {
+            connection.getChannel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void close() {
+        for (LoadConnection connection : connections) {
+            try {
+                connection.getChannel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
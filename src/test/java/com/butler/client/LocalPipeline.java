@@ -0,0 +1,64 @@
+package com.butler.client;
+
+import com.butler.metrics.Metrics;
+import com.butler.server.NioServer;
+import com.butler.socket.ConnectionProperties;
+import com.butler.socket.StubChatRelay;
+import com.butler.socket.StubDatabase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Runs the whole butler pipeline in one JVM: the stub database and chat relay on inproc sockets, the
+ * server on loopback and then {@link LoadGenerator} against it. Any address can still be overridden with
+ * a system property of the same name as in server.properties.
+ */
+public class LocalPipeline {
+    private static final long STARTUP_TIMEOUT_MS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        setDefault("butler_address", "127.0.0.1");
+        setDefault("database_address", "inproc://stub-database");
+        setDefault("chat_sender_address", "inproc://stub-chat-in");
+        setDefault("chat_receiver_address", "inproc://stub-chat-out");
+        Properties properties = ConnectionProperties.getProperties();
+
+        startDaemon(StubDatabase.fromSystemProperties(properties.getProperty("database_address")), "stub-database");
+        startDaemon(StubChatRelay.fromSystemProperties(properties.getProperty("chat_sender_address"),
+                properties.getProperty("chat_receiver_address")), "stub-chat-relay");
+        NioServer.main(args);
+        awaitServer(properties.getProperty("butler_address"), Integer.parseInt(properties.getProperty("butler_port")));
+
+        LoadGenerator.main(args);
+        System.out.print(Metrics.render());
+        System.exit(0);
+    }
+
+    private static void setDefault(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void awaitServer(String host, int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on " + host + ":" + port);
+    }
+}
@@ -0,0 +1,32 @@
+package com.butler.command;
+
+import com.butler.util.entity.User;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UserCacheTest {
+    private final UserCache cache = new UserCache();
+
+    @Test
+    public void lookupWithoutPasswordDoesNotCacheOne() {
+        cache.put(new User(7, "user", "stored"), null);
+        assertNull(cache.get("user", "stored"));
+        assertEquals(new User(7, "user", null).toString(), cache.get("user").toString());
+    }
+
+    @Test
+    public void lookupWithoutPasswordKeepsProvenHash() {
+        cache.put(new User(7, "user", "secret"), "secret");
+        cache.put(new User(7, "user", "other"), null);
+        assertEquals(new User(7, "user", "secret"), cache.get("user", "secret"));
+        assertNull(cache.get("user", "other"));
+    }
+
+    @Test
+    public void hitsNeverReturnTheCachedPassword() {
+        cache.put(new User(7, "user", "secret"), "secret");
+        assertNull(cache.get("user").getPassword());
+    }
+}
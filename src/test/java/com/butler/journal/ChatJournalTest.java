@@ -0,0 +1,95 @@
+package com.butler.journal;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChatJournalTest {
+    private static final int SEGMENT_BYTES = 64;
+    private static final int FRAMES = 1000;
+    private static final String FORMAT = "message %07d\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ChatJournal> journals = new ArrayList<>();
+
+    @After
+    public void closeJournals() {
+        journals.forEach(ChatJournal::close);
+    }
+
+    // Frames of 16 bytes fill the tiny segments exactly, so every fourth append rolls, either onto the standby the
+    // journal thread prepared or onto a segment the appender creates itself.
+    @Test
+    public void rollsKeepOffsetsContiguousAndFramesIntact() throws IOException {
+        ChatJournal journal = open();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < FRAMES; ++i) {
+            String frame = String.format(FORMAT, i);
+            assertEquals(expected.length(), journal.append(ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8))));
+            expected.append(frame);
+        }
+        assertEquals(expected.length(), journal.getEndOffset());
+        assertEquals(expected.toString(), read(journal.read(0, journal.getEndOffset())));
+    }
+
+    @Test
+    public void cursorsOnlyMoveForward() throws IOException {
+        ChatJournal journal = open();
+        assertEquals(-1, journal.getCursor(7));
+        journal.updateCursor(7, 32);
+        journal.updateCursor(7, 16);
+        assertEquals(32, journal.getCursor(7));
+    }
+
+    @Test
+    public void closeKeepsFramesAndCursorsForTheNextStart() throws IOException {
+        ChatJournal journal = open();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            String frame = String.format(FORMAT, i);
+            journal.append(ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8)));
+            expected.append(frame);
+        }
+        journal.updateCursor(7, 48);
+        journal.close();
+        assertEquals(-1, journal.append(ByteBuffer.wrap(new byte[1])));
+
+        ChatJournal reopened = open();
+        assertEquals(expected.length(), reopened.getEndOffset());
+        assertEquals(expected.toString(), read(reopened.read(0, reopened.getEndOffset())));
+        assertEquals(48, reopened.getCursor(7));
+    }
+
+    private ChatJournal open() throws IOException {
+        ChatJournal journal = new ChatJournal(folder.getRoot().toPath(), SEGMENT_BYTES, Long.MAX_VALUE,
+                Long.MAX_VALUE);
+        journals.add(journal);
+        return journal;
+    }
+
+    static String read(List<FileRegion> regions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (FileRegion region : regions) {
+            while (!region.isDone()) {
+                region.transferTo(channel);
+            }
+            region.release();
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package com.butler.journal;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DirectJournalTest {
+    private static final int SEGMENT_BYTES = 64;
+    private static final String FORMAT = "for %d, number %d\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<DirectJournal> journals = new ArrayList<>();
+
+    @After
+    public void closeJournals() {
+        journals.forEach(DirectJournal::close);
+    }
+
+    @Test
+    public void readsOnlyTheUsersOwnMessagesFromItsCursor() throws IOException {
+        DirectJournal journal = open();
+        append(journal, 1, 0);
+        append(journal, 2, 0);
+        long second = append(journal, 1, 1);
+        append(journal, 2, 1);
+        assertEquals(message(1, 0) + message(1, 1),
+                ChatJournalTest.read(journal.read(1, 0, journal.getEndOffset())));
+        assertEquals(message(1, 1), ChatJournalTest.read(journal.read(1, second, journal.getEndOffset())));
+        assertEquals(message(2, 0), ChatJournalTest.read(journal.read(2, 0, second)));
+        assertEquals("", ChatJournalTest.read(journal.read(3, 0, journal.getEndOffset())));
+    }
+
+    @Test
+    public void rebuildsTheIndexAndCursorsOnTheNextStart() throws IOException {
+        DirectJournal journal = open();
+        for (int i = 0; i < 10; ++i) {
+            append(journal, 1 + i % 2, i);
+        }
+        journal.updateCursor(2, 16);
+        journal.close();
+
+        DirectJournal reopened = open();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i < 10; i += 2) {
+            expected.append(message(2, i));
+        }
+        assertEquals(16, reopened.getCursor(2));
+        assertEquals(expected.toString(), ChatJournalTest.read(reopened.read(2, 0, reopened.getEndOffset())));
+    }
+
+    private DirectJournal open() throws IOException {
+        DirectJournal journal = new DirectJournal(folder.getRoot().toPath(), SEGMENT_BYTES, Long.MAX_VALUE,
+                Long.MAX_VALUE);
+        journals.add(journal);
+        return journal;
+    }
+
+    private static long append(DirectJournal journal, int userId, int number) throws IOException {
+        return journal.append(userId, ByteBuffer.wrap(message(userId, number).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String message(int userId, int number) {
+        return String.format(FORMAT, userId, number);
+    }
+}
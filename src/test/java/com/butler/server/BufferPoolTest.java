@@ -0,0 +1,59 @@
+package com.butler.server;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+    @Test
+    public void leakDetectionIsOnUnderTest() {
+        BufferPool pool = BufferPool.fromProperties(false);
+        PooledBuffer buffer = pool.acquire(100);
+        assertEquals(1, pool.getLeaks().size());
+        buffer.release();
+        assertEquals(0, pool.getLeaks().size());
+    }
+
+    @Test
+    public void recordsWhereOutstandingBuffersWereAcquired() {
+        BufferPool pool = new BufferPool(false, 65536, 64, true);
+        PooledBuffer released = pool.acquire(100);
+        pool.acquire(300);
+        released.release();
+        List<Throwable> leaks = pool.getLeaks();
+        assertEquals(1, leaks.size());
+        assertEquals("Buffer of 300 bytes acquired here", leaks.get(0).getMessage());
+        assertEquals(getClass().getName(), leaks.get(0).getStackTrace()[1].getClassName());
+        assertEquals(1, pool.getOutstanding());
+    }
+
+    @Test
+    public void sharedBufferIsRecycledByTheLastRelease() {
+        BufferPool pool = new BufferPool(false, 65536, 64, true);
+        PooledBuffer buffer = pool.acquire(100);
+        PooledBuffer duplicate = buffer.retainedDuplicate();
+        assertTrue(duplicate.buffer().isReadOnly());
+        buffer.release();
+        assertEquals(1, pool.getLeaks().size());
+        duplicate.release();
+        assertTrue(pool.getLeaks().isEmpty());
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(1, pool.getPooled());
+    }
+
+    @Test
+    public void reusesBuffersOfTheSameSizeClass() {
+        BufferPool pool = new BufferPool(true, 65536, 64, false);
+        pool.acquire(300).release();
+        PooledBuffer buffer = pool.acquire(400);
+        assertEquals(400, buffer.buffer().remaining());
+        assertEquals(1, pool.getAllocated());
+        buffer.release();
+        pool.acquire(100000).release();
+        assertEquals(1, pool.getUnpooled());
+        assertTrue(pool.getLeaks().isEmpty());
+    }
+}
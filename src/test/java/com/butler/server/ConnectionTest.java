@@ -0,0 +1,119 @@
+package com.butler.server;
+
+import com.butler.util.json.WireFormat;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionTest {
+    private static final int FRAMES = 100000;
+    private static final int WORKERS = 4;
+    private static final int MAX_QUEUED = 8;
+    private static final int RESUME_AT = MAX_QUEUED / 2;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final Connection connection = new Connection(null, null, null);
+
+    @Test
+    public void readsResumeOnceQueuedFramesDrain() {
+        for (int i = 0; i < 4; ++i) {
+            connection.frameQueued();
+        }
+        assertTrue(connection.pauseReads(2));
+        assertFalse(connection.pauseReads(2));
+        assertFalse(connection.frameHandled(2));
+        assertTrue(connection.isReadsPaused());
+        assertTrue(connection.frameHandled(2));
+        assertFalse(connection.isReadsPaused());
+        assertFalse(connection.frameHandled(2));
+    }
+
+    @Test
+    public void pauseIsUndoneIfFramesAlreadyDrained() {
+        connection.frameQueued();
+        assertFalse(connection.frameHandled(0));
+        assertFalse(connection.pauseReads(0));
+        assertFalse(connection.isReadsPaused());
+    }
+
+    @Test
+    public void closesOnlyOnce() {
+        assertFalse(connection.isClosed());
+        assertTrue(connection.markClosed());
+        assertFalse(connection.markClosed());
+        assertTrue(connection.isClosed());
+    }
+
+    @Test
+    public void swapsWireFormatAndReturnsThePreviousOne() {
+        assertEquals(WireFormat.JSON, connection.getWireFormat());
+        assertEquals(WireFormat.JSON, connection.swapWireFormat(WireFormat.SMILE));
+        assertEquals(WireFormat.SMILE, connection.swapWireFormat(WireFormat.SMILE));
+        assertEquals(WireFormat.SMILE, connection.getWireFormat());
+    }
+
+    // The event has no server, so this would fail if negotiation still reached it.
+    @Test
+    public void protocolIsRefusedAfterTheFirstOtherCommand() {
+        ServerDataEvent event = new ServerDataEvent(null, connection, null);
+        event.commandSeen();
+        assertFalse(event.negotiate(WireFormat.SMILE));
+        assertEquals(WireFormat.JSON, event.getWireFormat());
+    }
+
+    // The reactor queues frames and pauses above the limit while several workers drain them, as Reactor.dispatch()
+    // and Reactor.frameHandled() do. A pause nobody resumes would stall the reactor here, and a second resume for
+    // one pause would show up in the counts.
+    @Test
+    public void everyPauseIsResumedExactlyOnceUnderConcurrentWorkers() throws InterruptedException {
+        BlockingQueue<Boolean> frames = new LinkedBlockingQueue<>();
+        Semaphore resumed = new Semaphore(0);
+        AtomicInteger resumes = new AtomicInteger();
+        Thread[] workers = new Thread[WORKERS];
+        for (int i = 0; i < WORKERS; ++i) {
+            workers[i] = new Thread(() -> {
+                try {
+                    while (frames.take()) {
+                        if (connection.frameHandled(RESUME_AT)) {
+                            resumes.incrementAndGet();
+                            resumed.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "worker-" + i);
+            workers[i].start();
+        }
+        int pauses = 0;
+        try {
+            for (int i = 0; i < FRAMES; ++i) {
+                int queued = connection.frameQueued();
+                frames.add(true);
+                if (queued >= MAX_QUEUED && connection.pauseReads(RESUME_AT)) {
+                    pauses++;
+                    assertTrue("reads were never resumed", resumed.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                }
+            }
+        } finally {
+            for (int i = 0; i < WORKERS; ++i) {
+                frames.add(false);
+            }
+            for (Thread worker : workers) {
+                worker.join(TIMEOUT_MS);
+            }
+        }
+        assertTrue(pauses > 0);
+        assertEquals(pauses, resumes.get());
+        assertFalse(connection.isReadsPaused());
+        assertEquals(1, connection.frameQueued());
+    }
+}
@@ -0,0 +1,76 @@
+package com.butler.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LengthPrefixedFrameCodecTest {
+    private final FrameCodec codec = new LengthPrefixedFrameCodec(8);
+    private final ByteBuffer in = ByteBuffer.allocate(codec.getMaxBufferLength()).flip();
+    private final List<String> frames = new ArrayList<>();
+
+    @Test
+    public void partialHeaderAndBodyAreKeptUntilComplete() throws FrameTooLongException {
+        read(new byte[]{0, 0});
+        assertTrue(frames.isEmpty());
+        read(new byte[]{0, 3, 'a', 'b'});
+        assertTrue(frames.isEmpty());
+        assertEquals(6, in.remaining());
+        read(new byte[]{'c', 0, 0, 0});
+        assertEquals(Arrays.asList("abc"), frames);
+        assertEquals(3, in.remaining());
+        read(new byte[]{1, 'd'});
+        assertEquals(Arrays.asList("abc", "d"), frames);
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void skipsEmptyFrames() throws FrameTooLongException {
+        read(new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 'a'});
+        assertEquals(Arrays.asList("a"), frames);
+    }
+
+    @Test
+    public void oversizedLengthIsRejectedBeforeTheBodyArrives() {
+        try {
+            read(new byte[]{0, 0, 0, 9});
+            fail();
+        } catch (FrameTooLongException e) {
+            assertEquals("Frame of 9 bytes exceeds limit of 8", e.getMessage());
+        }
+    }
+
+    @Test
+    public void negativeLengthIsRejected() {
+        try {
+            read(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+            fail();
+        } catch (FrameTooLongException e) {
+            assertEquals("Frame of -1 bytes exceeds limit of 8", e.getMessage());
+        }
+    }
+
+    @Test
+    public void roundTripsAFrameAtTheLimit() throws FrameTooLongException {
+        byte[] payload = "12345678".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(codec.encodedLength(payload.length));
+        codec.encode(payload, out);
+        assertEquals(0, out.remaining());
+        read(out.array());
+        assertEquals(Arrays.asList("12345678"), frames);
+    }
+
+    // Appends to the read buffer the way the reactor does and decodes what has arrived so far.
+    private void read(byte[] data) throws FrameTooLongException {
+        in.compact().put(data).flip();
+        codec.decode(in, frame -> frames.add(StandardCharsets.UTF_8.decode(frame.duplicate()).toString()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.butler.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NewlineFrameCodecTest {
+    private final FrameCodec codec = new NewlineFrameCodec(8);
+    private final ByteBuffer in = ByteBuffer.allocate(codec.getMaxBufferLength()).flip();
+    private final List<String> frames = new ArrayList<>();
+
+    @Test
+    public void partialFrameIsKeptUntilItsNewlineArrives() throws FrameTooLongException {
+        read("ab");
+        assertTrue(frames.isEmpty());
+        assertEquals(2, in.remaining());
+        read("c\nd");
+        assertEquals(Arrays.asList("abc"), frames);
+        assertEquals(1, in.remaining());
+        read("\n");
+        assertEquals(Arrays.asList("abc", "d"), frames);
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void stripsCarriageReturnsAndSkipsEmptyLines() throws FrameTooLongException {
+        read("a\r\n\n\r\nb\n");
+        assertEquals(Arrays.asList("a", "b"), frames);
+    }
+
+    @Test
+    public void completeFrameAtTheLimitIsAccepted() throws FrameTooLongException {
+        read("12345678\r\n");
+        assertEquals(Arrays.asList("12345678"), frames);
+    }
+
+    @Test
+    public void partialFrameOverTheLimitIsRejected() throws FrameTooLongException {
+        read("12345678");
+        try {
+            read("9");
+            fail();
+        } catch (FrameTooLongException e) {
+            assertEquals("Frame of 9 bytes exceeds limit of 8", e.getMessage());
+        }
+    }
+
+    @Test
+    public void encodesWithTrailingNewline() {
+        ByteBuffer out = ByteBuffer.allocate(codec.encodedLength(3));
+        codec.encode("abc".getBytes(StandardCharsets.UTF_8), out);
+        assertEquals(0, out.remaining());
+        assertEquals("abc\n", new String(out.array(), StandardCharsets.UTF_8));
+    }
+
+    // Appends to the read buffer the way the reactor does and decodes what has arrived so far.
+    private void read(String data) throws FrameTooLongException {
+        in.compact().put(data.getBytes(StandardCharsets.UTF_8)).flip();
+        codec.decode(in, frame -> frames.add(StandardCharsets.UTF_8.decode(frame.duplicate()).toString()));
+    }
+}
@@ -0,0 +1,276 @@
+package com.butler.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundBufferTest {
+    private final BufferPool pool = new BufferPool(false, 65536, 64, true);
+    private final WriteStats stats = new WriteStats();
+    private OutboundBuffer outbound;
+
+    @After
+    public void tearDown() {
+        outbound.close();
+        assertEquals(pool.getLeaks().toString(), 0, pool.getOutstanding());
+    }
+
+    @Test
+    public void dropOldestNeverDropsReplies() throws IOException {
+        outbound = buffer(4, SlowConsumerPolicy.DROP_OLDEST);
+        assertTrue(outbound.offerReply(frame("r1")));
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(outbound.offer(frame("b" + i)));
+        }
+        assertTrue(outbound.offerReply(frame("r2")));
+        String written = flush(outbound, Integer.MAX_VALUE);
+        assertTrue(written, written.startsWith("r1\nr2\n"));
+        assertFalse(written, written.contains("b0\n"));
+        assertTrue(written, written.endsWith("b9\n"));
+        assertTrue(stats.getDroppedMessages() > 0);
+    }
+
+    @Test
+    public void dropNewKeepsQueueAtHighWater() throws IOException {
+        outbound = buffer(4, SlowConsumerPolicy.DROP_NEW);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(outbound.offer(frame("b" + i)));
+        }
+        assertEquals("b0\nb1\nb2\nb3\n", flush(outbound, Integer.MAX_VALUE));
+        assertEquals(6, stats.getDroppedMessages());
+    }
+
+    @Test
+    public void repliesFillUpToHardLimitThenDisconnect() {
+        outbound = buffer(4, SlowConsumerPolicy.DROP_NEW);
+        for (int i = 0; i < 8; ++i) {
+            assertTrue(outbound.offerReply(frame("r" + i)));
+        }
+        assertFalse(outbound.offerReply(frame("r8")));
+        assertTrue(outbound.offerReply(frame("r9")));
+        assertEquals(1, stats.getSlowConsumerDisconnects());
+    }
+
+    @Test
+    public void disconnectPolicyRequestsCloseOnce() {
+        outbound = buffer(2, SlowConsumerPolicy.DISCONNECT);
+        assertTrue(outbound.offer(frame("b0")));
+        assertTrue(outbound.offer(frame("b1")));
+        assertFalse(outbound.offer(frame("b2")));
+        assertTrue(outbound.offer(frame("b3")));
+        assertEquals(1, stats.getSlowConsumerDisconnects());
+    }
+
+    @Test
+    public void ringWrapsAcrossPartialGatheringWrites() throws IOException {
+        outbound = buffer(3, 0);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(outbound.offer(frame("m" + i)));
+            expected.append("m").append(i).append('\n');
+        }
+        CapturingChannel channel = new CapturingChannel(4);
+        int flushes = 0;
+        while (!outbound.flush(channel)) {
+            channel.refill();
+            flushes++;
+        }
+        assertEquals(expected.toString(), channel.toString());
+        assertEquals(7, flushes);
+        assertEquals(10, stats.getMessagesWritten());
+        assertTrue(outbound.isEmpty());
+    }
+
+    @Test
+    public void coalescesSmallFramesAroundLargeOnes() throws IOException {
+        outbound = buffer(4, 4);
+        for (String payload : new String[]{"a", "b", "c", "0123456789", "d", "e"}) {
+            assertTrue(outbound.offer(frame(payload)));
+        }
+        CapturingChannel channel = new CapturingChannel(Integer.MAX_VALUE);
+        assertTrue(outbound.flush(channel));
+        assertEquals("a\nb\nc\n0123456789\nd\ne\n", channel.toString());
+        assertEquals(1, channel.getCalls());
+        assertEquals(6, stats.getMessagesWritten());
+    }
+
+    @Test
+    public void coalescedSlotsAreReusedWhenTheRingWraps() throws IOException {
+        outbound = buffer(2, 4);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 12; ++i) {
+            String payload = i % 3 == 0 ? "large" + i : "s" + i;
+            assertTrue(outbound.offer(frame(payload)));
+            expected.append(payload).append('\n');
+        }
+        assertEquals(expected.toString(), flush(outbound, 5));
+        assertEquals(12, stats.getMessagesWritten());
+        assertTrue(outbound.isEmpty());
+    }
+
+    @Test
+    public void partialInlineWriteIsFinishedBeforeQueuedFrames() throws IOException {
+        outbound = buffer(4, 4);
+        CapturingChannel channel = new CapturingChannel(2);
+        assertEquals(OutboundBuffer.WRITE_PARTIAL, outbound.tryWrite(channel, frame("hello")));
+        assertTrue(outbound.offerReply(frame("r")));
+        PooledBuffer skipped = frame("late");
+        assertEquals(OutboundBuffer.WRITE_SKIPPED, outbound.tryWrite(channel, skipped));
+        skipped.release();
+        while (!outbound.flush(channel)) {
+            channel.refill();
+        }
+        assertEquals("hello\nr\n", channel.toString());
+        assertEquals(2, stats.getMessagesWritten());
+    }
+
+    // Producers keep dropping and queueing while another thread flushes through a tiny ring, so fill() and the
+    // drop-oldest trimming race on every flush. Every frame must come out whole and in its producer's order.
+    @Test
+    public void concurrentProducersNeverScrambleTheStream() throws Exception {
+        outbound = new OutboundBuffer(2, 4, new OutboundLimits(Long.MAX_VALUE, Long.MAX_VALUE, 64, 32,
+                SlowConsumerPolicy.DROP_OLDEST), pool, stats);
+        Thread broadcaster = new Thread(() -> {
+            for (int i = 0; i < 20000; ++i) {
+                outbound.offer(frame("b" + i));
+            }
+        });
+        Thread replier = new Thread(() -> {
+            for (int i = 0; i < 2000; ++i) {
+                outbound.offerReply(frame("r" + i));
+                Thread.yield();
+            }
+        });
+        broadcaster.start();
+        replier.start();
+        CapturingChannel channel = new CapturingChannel(7);
+        while (broadcaster.isAlive() || replier.isAlive() || !outbound.isEmpty()) {
+            outbound.flush(channel);
+            channel.refill();
+        }
+        broadcaster.join();
+        replier.join();
+        outbound.flush(channel);
+
+        int lastBroadcast = -1;
+        int lastReply = -1;
+        for (String line : channel.toString().split("\n")) {
+            int sequence = Integer.parseInt(line.substring(1));
+            if (line.charAt(0) == 'b') {
+                assertTrue(line, sequence > lastBroadcast);
+                lastBroadcast = sequence;
+            } else {
+                assertEquals(line, 'r', line.charAt(0));
+                assertTrue(line, sequence > lastReply);
+                lastReply = sequence;
+            }
+        }
+        assertEquals(19999, lastBroadcast);
+        assertEquals(0, stats.getSlowConsumerDisconnects());
+        assertEquals(1999, lastReply);
+    }
+
+    private OutboundBuffer buffer(int gatherLimit, int coalesceThreshold) {
+        OutboundLimits limits = new OutboundLimits(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, SlowConsumerPolicy.DROP_NEW);
+        return new OutboundBuffer(gatherLimit, coalesceThreshold, limits, pool, stats);
+    }
+
+    private OutboundBuffer buffer(int highWaterMessages, SlowConsumerPolicy policy) {
+        OutboundLimits limits = new OutboundLimits(Long.MAX_VALUE, Long.MAX_VALUE, highWaterMessages,
+                highWaterMessages / 2, policy);
+        return new OutboundBuffer(4, 0, limits, pool, stats);
+    }
+
+    private PooledBuffer frame(String payload) {
+        byte[] data = (payload + "\n").getBytes(StandardCharsets.UTF_8);
+        PooledBuffer frame = pool.acquire(data.length);
+        frame.buffer().put(data).flip();
+        return frame;
+    }
+
+    private static String flush(OutboundBuffer outbound, int writeBudget) throws IOException {
+        CapturingChannel channel = new CapturingChannel(writeBudget);
+        while (!outbound.flush(channel)) {
+            channel.refill();
+        }
+        return channel.toString();
+    }
+
+    /**
+     * Records everything written to it and accepts at most {@code budget} bytes between refills, so tests can force
+     * partial writes.
+     */
+    static class CapturingChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int budget;
+        private int remaining;
+        private int calls;
+
+        CapturingChannel(int budget) {
+            this.budget = budget;
+            remaining = budget;
+        }
+
+        void refill() {
+            remaining = budget;
+        }
+
+        int getCalls() {
+            return calls;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            calls++;
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += copy(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            calls++;
+            return copy(src);
+        }
+
+        private int copy(ByteBuffer src) {
+            int count = Math.min(src.remaining(), remaining);
+            for (int i = 0; i < count; ++i) {
+                written.write(src.get());
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return written.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.butler.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutManagerTest {
+    private static final long TICK_MS = 10;
+
+    private final List<Connection> expired = new ArrayList<>();
+    private long nanos;
+
+    @Test
+    public void expiresOnceTheTimeoutHasPassed() {
+        TimeoutManager timeouts = timeouts(100, 1 << 20);
+        Connection connection = connection();
+        timeouts.addHandle(connection);
+        advanceTo(timeouts, 90);
+        assertTrue(expired.isEmpty());
+        advanceTo(timeouts, 100);
+        assertEquals(Collections.singletonList(connection), expired);
+        advanceTo(timeouts, 1000);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void touchMovesTheDeadline() {
+        TimeoutManager timeouts = timeouts(100, 1 << 20);
+        Connection connection = connection();
+        TimeoutManager.Handle handle = timeouts.addHandle(connection);
+        advanceTo(timeouts, 50);
+        timeouts.touch(handle);
+        advanceTo(timeouts, 140);
+        assertTrue(expired.isEmpty());
+        advanceTo(timeouts, 150);
+        assertEquals(Collections.singletonList(connection), expired);
+    }
+
+    @Test
+    public void handlesOutlastSeveralRoundsOfASmallWheel() {
+        TimeoutManager timeouts = timeouts(200, 4);
+        Connection connection = connection();
+        timeouts.addHandle(connection);
+        for (long ms = TICK_MS; ms < 200; ms += TICK_MS) {
+            advanceTo(timeouts, ms);
+            assertTrue("expired at " + ms + " ms", expired.isEmpty());
+        }
+        advanceTo(timeouts, 200);
+        assertEquals(Collections.singletonList(connection), expired);
+    }
+
+    @Test
+    public void removedHandlesNeverExpire() {
+        TimeoutManager timeouts = timeouts(100, 1 << 20);
+        Connection first = connection();
+        Connection middle = connection();
+        Connection last = connection();
+        timeouts.addHandle(first);
+        TimeoutManager.Handle removed = timeouts.addHandle(middle);
+        timeouts.addHandle(last);
+        timeouts.removeHandle(removed);
+        timeouts.removeHandle(removed);
+        advanceTo(timeouts, 100);
+        assertEquals(2, expired.size());
+        assertTrue(expired.containsAll(Arrays.asList(first, last)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTicksBelowOneMillisecond() {
+        new TimeoutManager(0, 100, 1 << 20, () -> nanos);
+    }
+
+    private TimeoutManager timeouts(long timeoutMs, int maxWheelSize) {
+        return new TimeoutManager(TICK_MS, timeoutMs, maxWheelSize, () -> nanos);
+    }
+
+    private void advanceTo(TimeoutManager timeouts, long ms) {
+        nanos = TimeUnit.MILLISECONDS.toNanos(ms);
+        timeouts.expire(expired::add);
+    }
+
+    private static Connection connection() {
+        return new Connection(null, null, null);
+    }
+}
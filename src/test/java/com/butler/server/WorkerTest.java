@@ -0,0 +1,46 @@
+package com.butler.server;
+
+import com.butler.command.UserCache;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkerTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final BufferPool pool = new BufferPool(false, 65536, 64, true);
+
+    // A connection without a reactor makes every event fail after its command ran, the way a failing send would.
+    @Test
+    public void survivesEventsThatThrow() throws InterruptedException {
+        Worker worker = new Worker(16, null, null, new UserCache());
+        Thread thread = new Thread(worker, "worker-test");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            Connection connection = new Connection(null, null, null);
+            for (int i = 0; i < 3; ++i) {
+                worker.processData(null, connection, request());
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while ((worker.getQueueDepth() > 0 || pool.getOutstanding() > 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, worker.getQueueDepth());
+            assertTrue(thread.isAlive());
+            assertEquals(pool.getLeaks().toString(), 0, pool.getOutstanding());
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    private PooledBuffer request() {
+        byte[] data = "{\"command\":\"unknown\"}".getBytes(StandardCharsets.UTF_8);
+        PooledBuffer buffer = pool.acquire(data.length);
+        buffer.buffer().put(data).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,98 @@
+package com.butler.socket;
+
+import org.zeromq.ZMQ;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class StubChatRelay implements Runnable {
+    private final ZMQ.Socket pull;
+    private final ZMQ.Socket publisher;
+    private final long latencyNanos;
+    private final double dropRate;
+    private final Queue<Message> delayed = new ArrayDeque<>();
+
+    public StubChatRelay(String pullAddress, String publishAddress, long latencyMicros, double dropRate) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.dropRate = dropRate;
+        ZMQ.Context context = ZmqContextHolder.getContext();
+        pull = context.socket(ZMQ.PULL);
+        pull.setLinger(0);
+        pull.bind(pullAddress);
+        publisher = context.socket(ZMQ.PUB);
+        publisher.setLinger(0);
+        publisher.bind(publishAddress);
+    }
+
+    public static StubChatRelay fromSystemProperties(String pullAddress, String publishAddress) {
+        return new StubChatRelay(pullAddress, publishAddress,
+                Long.getLong("stub.chat.latency_us", 0),
+                Double.parseDouble(System.getProperty("stub.chat.drop_rate", "0")));
+    }
+
+    @Override
+    public void run() {
+        ZMQ.Poller poller = new ZMQ.Poller(1);
+        poller.register(pull, ZMQ.Poller.POLLIN);
+        while (!Thread.currentThread().isInterrupted()) {
+            poller.poll(pollTimeout());
+            if (poller.pollin(0)) {
+                receive();
+            }
+            publishDue();
+        }
+        pull.close();
+        publisher.close();
+    }
+
+    private void receive() {
+        byte[] frame;
+        while ((frame = pull.recv(ZMQ.DONTWAIT)) != null) {
+            long due = System.nanoTime() + latencyNanos;
+            forward(frame, due);
+            while (pull.hasReceiveMore()) {
+                forward(pull.recv(), due);
+            }
+        }
+    }
+
+    private void forward(byte[] frame, long due) {
+        if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+            return;
+        }
+        if (latencyNanos == 0) {
+            publisher.send(frame, 0);
+        } else {
+            delayed.add(new Message(frame, due));
+        }
+    }
+
+    private void publishDue() {
+        long now = System.nanoTime();
+        Message message;
+        while ((message = delayed.peek()) != null && message.due - now <= 0) {
+            delayed.poll();
+            publisher.send(message.frame, 0);
+        }
+    }
+
+    private long pollTimeout() {
+        Message message = delayed.peek();
+        if (message == null) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(message.due - System.nanoTime()));
+    }
+
+    private static class Message {
+        private final byte[] frame;
+        private final long due;
+
+        Message(byte[] frame, long due) {
+            this.frame = frame;
+            this.due = due;
+        }
+    }
+}
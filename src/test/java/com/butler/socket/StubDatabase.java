@@ -0,0 +1,145 @@
+package com.butler.socket;
+
+import com.butler.util.entity.User;
+import com.butler.util.json.JsonObject;
+import com.butler.util.json.JsonObjectFactory;
+import org.zeromq.ZMQ;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StubDatabase implements Runnable {
+    private static final String GET_USER_BY_LOGIN_PASSWORD = "getUserByLoginPassword";
+    private static final String GET_USER_BY_LOGIN = "getUserByLogin";
+    private static final String NEW_USER = "newUser";
+    private static final String DROP = "drop";
+
+    private final ZMQ.Socket router;
+    private final long latencyNanos;
+    private final double failureRate;
+    private final boolean dropFailures;
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Reply> delayed = new ArrayDeque<>();
+
+    public StubDatabase(String address, long latencyMicros, double failureRate, String failureMode) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.failureRate = failureRate;
+        this.dropFailures = DROP.equals(failureMode);
+        router = ZmqContextHolder.getContext().socket(ZMQ.ROUTER);
+        router.setLinger(0);
+        router.bind(address);
+    }
+
+    public static StubDatabase fromSystemProperties(String address) {
+        return new StubDatabase(address,
+                Long.getLong("stub.database.latency_us", 0),
+                Double.parseDouble(System.getProperty("stub.database.failure_rate", "0")),
+                System.getProperty("stub.database.failure_mode", DROP));
+    }
+
+    @Override
+    public void run() {
+        ZMQ.Poller poller = new ZMQ.Poller(1);
+        poller.register(router, ZMQ.Poller.POLLIN);
+        while (!Thread.currentThread().isInterrupted()) {
+            poller.poll(pollTimeout());
+            if (poller.pollin(0)) {
+                receive();
+            }
+            sendDue();
+        }
+        router.close();
+    }
+
+    private void receive() {
+        byte[] identity;
+        while ((identity = router.recv(ZMQ.DONTWAIT)) != null) {
+            byte[] id = router.recv();
+            byte[] payload = null;
+            while (router.hasReceiveMore()) {
+                payload = router.recv();
+            }
+            if (payload == null) {
+                continue;
+            }
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                if (dropFailures) {
+                    continue;
+                }
+                delayed.add(new Reply(identity, id, JsonObjectFactory.getJsonString(new User()), System.nanoTime() + latencyNanos));
+                continue;
+            }
+            delayed.add(new Reply(identity, id, handle(payload), System.nanoTime() + latencyNanos));
+        }
+    }
+
+    private String handle(byte[] payload) {
+        JsonObject request = JsonObjectFactory.getObjectFromJson(payload, 0, payload.length, JsonObject.class);
+        if (request == null || request.getUser() == null || request.getUser().getLogin() == null) {
+            return JsonObjectFactory.getJsonString(new User());
+        }
+        User requested = request.getUser();
+        User stored = users.get(requested.getLogin());
+        switch (String.valueOf(request.getCommand())) {
+            case NEW_USER:
+                if (stored == null) {
+                    stored = new User(nextId.incrementAndGet(), requested.getLogin(), requested.getPassword());
+                    User raced = users.putIfAbsent(requested.getLogin(), stored);
+                    if (raced == null) {
+                        return JsonObjectFactory.getJsonString(stored);
+                    }
+                }
+                return JsonObjectFactory.getJsonString(new User());
+            case GET_USER_BY_LOGIN_PASSWORD:
+                if (stored != null && stored.getPassword() != null && stored.getPassword().equals(requested.getPassword())) {
+                    return JsonObjectFactory.getJsonString(stored);
+                }
+                return JsonObjectFactory.getJsonString(new User());
+            case GET_USER_BY_LOGIN:
+                return JsonObjectFactory.getJsonString(stored != null ? stored : new User());
+            default:
+                return JsonObjectFactory.getJsonString(new User());
+        }
+    }
+
+    private void sendDue() {
+        long now = System.nanoTime();
+        Reply reply;
+        while ((reply = delayed.peek()) != null && reply.due - now <= 0) {
+            delayed.poll();
+            router.sendMore(reply.identity);
+            router.sendMore(reply.id);
+            router.sendMore(new byte[0]);
+            router.send(reply.body);
+        }
+    }
+
+    private long pollTimeout() {
+        Reply reply = delayed.peek();
+        if (reply == null) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(reply.due - System.nanoTime()));
+    }
+
+    private static class Reply {
+        private final byte[] identity;
+        private final byte[] id;
+        private final String body;
+        private final long due;
+
+        Reply(byte[] identity, byte[] id, String body, long due) {
+            this.identity = identity;
+            this.id = id;
+            this.body = body;
+            this.due = due;
+        }
+    }
+}